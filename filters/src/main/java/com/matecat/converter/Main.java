@@ -20,9 +20,9 @@ public class Main {
 		// Init the server
 		MatecatConverterServer server = new MatecatConverterServer();
 
-		// Shutdown gracefully when receiving SIGTERM or similar
+		// Shutdown gracefully when receiving SIGTERM or similar, letting the running conversions end
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			LOGGER.info("Shutdown signal received, stopping the server...");
+			LOGGER.info("Shutdown signal received, draining and stopping the server...");
 			server.stop();
 			LOGGER.info("Server stopped successfully. Good bye!");
 		}));
@@ -1,29 +1,32 @@
 package com.matecat.converter.core;
 
+import com.matecat.converter.core.metrics.Metrics;
 import com.matecat.converter.core.okapiclient.OkapiPack;
-import org.apache.commons.io.FileUtils;
+import com.matecat.converter.core.util.Config;
+import com.matecat.converter.core.util.EscapingXmlWriter;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DeflaterInputStream;
 
 /**
  * Xliff builder
@@ -51,13 +54,31 @@ import java.util.Base64;
  *      </header>
  *      <body></body>
  * </file>
+ *
+ * When the compress-embedded-files param is enabled, the files which are not ZIP containers already are deflated
+ * before encoding them, and marked with form="deflate+base64".
  */
 public class XliffBuilder {
 
     // Logger
     private static Logger LOGGER = LoggerFactory.getLogger(XliffBuilder.class);
 
-    private static final String FILTERS_VERSION = XliffBuilder.class.getPackage().getImplementationVersion();
+    public static final String FILTERS_VERSION = XliffBuilder.class.getPackage().getImplementationVersion();
+
+    // Forms of the embedded files
+    public static final String BASE64_FORM = "base64";
+    public static final String COMPRESSED_FORM = "deflate+base64";
+
+    // Local file header signature, at the beginning of every ZIP container
+    private static final byte[] ZIP_SIGNATURE = { 'P', 'K', 3, 4 };
+
+    // StAX factories are thread safe once configured
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
 
     /**
      * Build the XLIFF, manifest and original file into a new Xliff
@@ -66,6 +87,18 @@ public class XliffBuilder {
      * @return New XLIFF generated combining the inputs
      */
     public static File build(final OkapiPack pack, Format originalFormat, Class filter) {
+        return build(pack, originalFormat, filter, Config.compressEmbeddedFiles);
+    }
+
+
+    /**
+     * Build the XLIFF, manifest and original file into a new Xliff
+     * @param pack Pack generated by Okapi
+     * @param originalFormat Original format, if the file was converted before processing it
+     * @param compress Compress the embedded files which are not ZIP containers
+     * @return New XLIFF generated combining the inputs
+     */
+    static File build(final OkapiPack pack, Format originalFormat, Class filter, boolean compress) {
 
         // Check the inputs that are not empty
         if (pack == null)
@@ -78,101 +111,91 @@ public class XliffBuilder {
         // Retrieve the filename
         String filename = pack.getOriginalFile().getName();
 
-        // Encode the files we are going to insert into the xlf
-        String encodedManifest = encodeFile(pack.getManifest());
-        String encodedFile = encodeFile(pack.getOriginalFile());
-
-        // Insert the filename, the encoded manifest and the encoded file into the xlf
-        File xlf = pack.getXlf();
-        String outputPath = pack.getPackFolder().getParentFile().getPath() + File.separator + filename + ".xlf";
-        return createXliff(outputPath, xlf, filename, originalFormat, filter, encodedFile, encodedManifest);
-
-    }
-
-
-    /**
-     * Encode the file
-     * @param input File to be encoded
-     * @return Encoded file
-     */
-    private static String encodeFile(File input) {
-        String output;
+        long start = System.nanoTime();
         try {
-            byte[] bytes = Files.readAllBytes(input.toPath());
-            output = Base64.getEncoder().encodeToString(bytes);
-        } catch (IOException e) {
-            //e.printStackTrace();
-            throw new RuntimeException("It was not possible to encode the file " + input.getName());
+
+            // Insert the filename, the encoded manifest and the encoded file into the xlf
+            File xlf = pack.getXlf();
+            String outputPath = pack.getPackFolder().getParentFile().getPath() + File.separator + filename + ".xlf";
+            return createXliff(outputPath, xlf, filename, originalFormat, filter, pack.getOriginalFile(), pack.getManifest(), compress);
+        } finally {
+            Metrics.observe(Metrics.XLIFF_BUILD, originalFormat, Metrics.ORIGINAL2XLIFF, start);
         }
-        return output;
+
     }
 
 
     /**
      * Create a new Xliff
+     *
+     * The base XLIFF is streamed to the output, so its size doesn't affect the memory used, and the embedded files
+     * are encoded while they are read.
+     *
      * @param outputPath Path where the new Xliff should be saved
      * @param baseXLF Base xliff
      * @param filename Original file's filename
      * @param originalFormat Original file's format, before any conversion
-     * @param encodedFile Encoded original file's contents
-     * @param encodedManifest Encoded manifest   @return Xliff generated
+     * @param originalFile Original file to embed
+     * @param manifest Manifest to embed
+     * @param compress Compress the embedded files which are not ZIP containers
+     * @return Xliff generated
      */
-    private static File createXliff(String outputPath, final File baseXLF, String filename, Format originalFormat, Class filter, String encodedFile, String encodedManifest) {
-
-        File output = null;
-
-        try (InputStream baseXlfContent = new FileInputStream(baseXLF)) {
-
-            // Parse the XML document
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = documentBuilder.parse(baseXlfContent);
-            Element root = document.getDocumentElement();
-
-            // Add a leading underscore to all <ex> ids.
-            // This because sometimes Trados fails opening these XLIFFs
-            // generated by MateCat with a very cryptic error like "index was
-            // out of range", and we found that just making <ex> ids different
-            // from <bx> ids in the same TU fixes the issue. Adding this
-            // leading underscores does the job. It is removed in XliffProcessor
-            // when we recreate the original Okapi XLIFF.
-            NodeList exElements = document.getElementsByTagName("ex");
-            for (int i = 0; i < exElements.getLength(); i++) {
-                Element exElement = (Element) exElements.item(i);
-                exElement.setAttribute("id", "_" + exElement.getAttribute("id"));
-            }
+    private static File createXliff(String outputPath, final File baseXLF, String filename, Format originalFormat, Class filter, File originalFile, File manifest, boolean compress) {
 
-            // Retrieve the source and target language
-            Element sampleFile = (Element) document.getElementsByTagName("file").item(0);
-            String sourceLanguage = sampleFile.getAttribute("source-language");
-            String targetLanguage = sampleFile.getAttribute("target-language");
-
-            // Add the original file
-            Element manifestNode = createFileElement(document, sourceLanguage, targetLanguage,
-                    "manifest.rkm", null, filter, encodedManifest);
-            root.insertBefore(manifestNode, root.getFirstChild());
-
-            // Add the original file
-            Element originalFileNode = createFileElement(document, sourceLanguage, targetLanguage,
-                    filename, originalFormat, filter, encodedFile);
-            root.insertBefore(originalFileNode, root.getFirstChild());
-
-            // Save the file
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            DOMSource domSource = new DOMSource(document);
-            StreamResult streamResult = new StreamResult(outputPath);
-            transformer.transform(domSource, streamResult);
-
-            // Instantiate the output file
-            output = new File(outputPath);
-
-            // Check that the file has been correctly created
-            if (!output.exists()) {
-                throw new RuntimeException("The output Xliff could not been created");
+        // Retrieve the source and target language
+        StartElement sampleFile = findFirstElement(baseXLF, "file");
+        if (sampleFile == null) {
+            throw new RuntimeException("The XLIFF generated by Okapi has no file element");
+        }
+        String sourceLanguage = getAttribute(sampleFile, "source-language");
+        String targetLanguage = getAttribute(sampleFile, "target-language");
+
+        File output = new File(outputPath);
+        XMLEventReader reader = null;
+        try (InputStream baseXlfContent = new BufferedInputStream(new FileInputStream(baseXLF));
+             OutputStream outputContent = new BufferedOutputStream(new FileOutputStream(output))) {
+
+            reader = INPUT_FACTORY.createXMLEventReader(baseXlfContent);
+            // Always UTF-8, whatever the encoding of the input
+            EscapingXmlWriter writer = new EscapingXmlWriter(outputContent);
+            boolean rootFound = false;
+
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+
+                if (event.isStartElement()) {
+                    StartElement element = event.asStartElement();
+
+                    // Add a leading underscore to all <ex> ids.
+                    // This because sometimes Trados fails opening these XLIFFs
+                    // generated by MateCat with a very cryptic error like "index was
+                    // out of range", and we found that just making <ex> ids different
+                    // from <bx> ids in the same TU fixes the issue. Adding this
+                    // leading underscores does the job. It is removed in XliffProcessor
+                    // when we recreate the original Okapi XLIFF.
+                    if (element.getName().getLocalPart().equals("ex")) {
+                        event = prefixId(element);
+                    }
+
+                    if (!rootFound) {
+                        rootFound = true;
+                        writer.add(event);
+
+                        // Add the original file and the manifest, as first children of the root
+                        writeFileElement(writer, sourceLanguage, targetLanguage, filename, originalFormat, filter, originalFile, compress);
+                        writeFileElement(writer, sourceLanguage, targetLanguage, "manifest.rkm", null, filter, manifest, compress);
+                        continue;
+                    }
+                }
+
+                writer.add(event);
             }
+            writer.flush();
 
-        } catch (ParserConfigurationException | TransformerException | IOException | SAXException pce) {
-            pce.printStackTrace();
+        } catch (XMLStreamException | IOException e) {
+            throw new RuntimeException("The output Xliff could not been created", e);
+        } finally {
+            closeQuietly(reader);
         }
 
         // Return the outputted file
@@ -183,15 +206,16 @@ public class XliffBuilder {
 
     /**
      * Create a file element which contains a encoded file
-     * @param document XML's document
+     * @param writer Writer of the new XLIFF
      * @param sourceLanguage Source language
      * @param targetLanguage Target language
      * @param filename Filename of the file we are storing
      * @param originalFormat Original file's format, before any conversion
-     * @param encodedFile Encoded contents of the file we are storing  @return New file element
+     * @param file File to store
+     * @param compress Compress the file, unless it's a ZIP container
      */
-    private static Element createFileElement(Document document, String sourceLanguage, String targetLanguage,
-                                             String filename, Format originalFormat, Class filter, String encodedFile) {
+    private static void writeFileElement(EscapingXmlWriter writer, String sourceLanguage, String targetLanguage,
+                                         String filename, Format originalFormat, Class filter, File file, boolean compress) throws IOException {
 
         // Process filename and original format
         Format format = Format.getFormat(filename);
@@ -201,39 +225,132 @@ public class XliffBuilder {
         }
 
         // Create the new file element which will contain the original file
-        Element originalFileNode = document.createElement("file");
         String toolId = "matecat-converter";
         if (FILTERS_VERSION != null) {
             toolId += " " + FILTERS_VERSION;
         } else {
             LOGGER.warn("Can't write Filters version in XLIFF (version available only when running from a jar)");
         }
-        originalFileNode.setAttribute("tool-id", toolId);
-        originalFileNode.setAttribute("filter", filter.getCanonicalName());
-        originalFileNode.setAttribute("original", filename);
-        originalFileNode.setAttribute("datatype", "x-" + format);
-        originalFileNode.setAttribute("source-language", sourceLanguage);
-        originalFileNode.setAttribute("target-language", targetLanguage);
+        List<Attribute> attributes = Arrays.asList(
+                EVENT_FACTORY.createAttribute("tool-id", toolId),
+                EVENT_FACTORY.createAttribute("filter", filter.getCanonicalName()),
+                EVENT_FACTORY.createAttribute("original", filename),
+                EVENT_FACTORY.createAttribute("datatype", "x-" + format),
+                EVENT_FACTORY.createAttribute("source-language", sourceLanguage),
+                EVENT_FACTORY.createAttribute("target-language", targetLanguage));
+        writer.add(EVENT_FACTORY.createStartElement("", "", "file", attributes.iterator(), null));
 
         // Header
-        Element headerElement = document.createElement("header");
-        Element referenceElement = document.createElement("reference");
-        Element internalFileElement = document.createElement("internal-file");
-        internalFileElement.setAttribute("form", "base64");
-        internalFileElement.appendChild(document.createTextNode(encodedFile));
-        referenceElement.appendChild(internalFileElement);
-        headerElement.appendChild(referenceElement);
-
-        // Add the skeleton to the file, and the file to the document
-        originalFileNode.appendChild(headerElement);
+        writer.add(EVENT_FACTORY.createStartElement("", "", "header"));
+        writer.add(EVENT_FACTORY.createStartElement("", "", "reference"));
+        // ZIP containers would hardly get any smaller
+        compress = compress && !isZipContainer(file);
+        writer.add(EVENT_FACTORY.createStartElement("", "", "internal-file",
+                Collections.singletonList(EVENT_FACTORY.createAttribute("form", compress ? COMPRESSED_FORM : BASE64_FORM)).iterator(), null));
+        writeEncodedFile(writer, file, compress);
+        writer.add(EVENT_FACTORY.createEndElement("", "", "internal-file"));
+        writer.add(EVENT_FACTORY.createEndElement("", "", "reference"));
+        writer.add(EVENT_FACTORY.createEndElement("", "", "header"));
 
         // Add empty body
-        Element bodyElement = document.createElement("body");
-        originalFileNode.appendChild(bodyElement);
+        writer.add(EVENT_FACTORY.createStartElement("", "", "body"));
+        writer.add(EVENT_FACTORY.createEndElement("", "", "body"));
+
+        writer.add(EVENT_FACTORY.createEndElement("", "", "file"));
+
+    }
+
 
-        // Return the new node
-        return originalFileNode;
+    /**
+     * Check if a file is a ZIP container, like DOCX, IDML or ODT
+     * @param file File
+     * @return True if the file starts with the ZIP signature
+     */
+    private static boolean isZipContainer(File file) throws IOException {
+        byte[] signature = new byte[ZIP_SIGNATURE.length];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return IOUtils.read(inputStream, signature) == signature.length && Arrays.equals(signature, ZIP_SIGNATURE);
+        }
+    }
+
+
+    /**
+     * Write the Base64 encoding of a file, reading it in chunks
+     * @param writer Writer of the new XLIFF
+     * @param input File to be encoded
+     * @param compress Deflate the file before encoding it
+     */
+    private static void writeEncodedFile(EscapingXmlWriter writer, File input, boolean compress) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        // Chunks are multiple of 3 bytes, so their encodings can be concatenated
+        byte[] chunk = new byte[3 * 16 * 1024];
+        try (InputStream inputStream = (compress ? new DeflaterInputStream(new FileInputStream(input)) : new FileInputStream(input))) {
+            int length;
+            while ((length = IOUtils.read(inputStream, chunk)) > 0) {
+                byte[] bytes = (length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+                writer.add(EVENT_FACTORY.createCharacters(new String(encoder.encode(bytes), StandardCharsets.US_ASCII)));
+            }
+        } catch (IOException e) {
+            throw new IOException("It was not possible to encode the file " + input.getName(), e);
+        }
+    }
+
+
+    /**
+     * Add the leading underscore to the id of an element
+     */
+    private static StartElement prefixId(StartElement element) {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<?> iterator = element.getAttributes();
+        while (iterator.hasNext()) {
+            Attribute attribute = (Attribute) iterator.next();
+            if (attribute.getName().getLocalPart().equals("id") && attribute.getName().getNamespaceURI().isEmpty()) {
+                attribute = EVENT_FACTORY.createAttribute(attribute.getName(), "_" + attribute.getValue());
+            }
+            attributes.add(attribute);
+        }
+        return EVENT_FACTORY.createStartElement(element.getName(), attributes.iterator(), element.getNamespaces());
+    }
 
+
+    /**
+     * Find the first element with a name, reading the XML only until it
+     * @param xml XML file
+     * @param localName Name of the element
+     * @return The element, or null if it's not found
+     */
+    private static StartElement findFirstElement(File xml, String localName) {
+        XMLEventReader reader = null;
+        try (InputStream content = new BufferedInputStream(new FileInputStream(xml))) {
+            reader = INPUT_FACTORY.createXMLEventReader(content);
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement() && event.asStartElement().getName().getLocalPart().equals(localName)) {
+                    return event.asStartElement();
+                }
+            }
+            return null;
+        } catch (XMLStreamException | IOException e) {
+            throw new RuntimeException("Cannot parse the XLIFF " + xml.getName(), e);
+        } finally {
+            closeQuietly(reader);
+        }
     }
 
+
+    private static String getAttribute(StartElement element, String localName) {
+        Attribute attribute = element.getAttributeByName(new QName(localName));
+        return (attribute != null ? attribute.getValue() : "");
+    }
+
+
+    private static void closeQuietly(XMLEventReader reader) {
+        try {
+            if (reader != null) reader.close();
+        } catch (XMLStreamException e) {
+            LOGGER.warn("Cannot close the XML streams", e);
+        }
+    }
+
+
 }
@@ -0,0 +1,196 @@
+package com.matecat.converter.core;
+
+import org.apache.commons.io.FilenameUtils;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.util.Locale;
+
+
+/**
+ * Xliff header
+ *
+ * Immutable model of the attributes of the first 'file' element of a XLIFF generated by the XliffBuilder, which is
+ * the one containing the original file:
+ *
+ * <file
+ *  tool-id="matecat-converter {VERSION}"
+ *  filter="{FILTER CLASS}"
+ *  original="{ORIGINAL FILENAME (before conversions)}"
+ *  datatype="x-{FORMAT (after conversions)}"
+ *  source-language="{SRC LANGUAGE}"
+ *  target-language="{TARGET LANGUAGE}">
+ *
+ * It is read once, parsing the XLIFF only until the first file element, and then shared by all the steps of the merge.
+ */
+public class XliffHeader {
+
+    // The filter is read only if the file element starts within this number of chars
+    private static final int FILTER_PREFIX_LENGTH = 1000;
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final String filter;
+    private final String toolId;
+    private final String original;
+    private final String datatype;
+    private final Locale sourceLanguage, targetLanguage;
+
+
+    /**
+     * Create the header from the first file element
+     * @param fileElement File element, or null if the XLIFF has none
+     */
+    XliffHeader(StartElement fileElement) {
+        this.filter = (fileElement != null && fileElement.getLocation().getCharacterOffset() < FILTER_PREFIX_LENGTH ?
+                getAttribute(fileElement, "filter") : null);
+        this.toolId = getAttribute(fileElement, "tool-id");
+        this.original = getAttribute(fileElement, "original");
+        this.datatype = getAttribute(fileElement, "datatype");
+        String sourceLanguage = getAttribute(fileElement, "source-language");
+        String targetLanguage = getAttribute(fileElement, "target-language");
+        this.sourceLanguage = new Locale(sourceLanguage != null ? sourceLanguage : "");
+        this.targetLanguage = new Locale(targetLanguage != null ? targetLanguage : "");
+    }
+
+
+    /**
+     * Read the header of a XLIFF, without parsing the whole file
+     * @param xlf Xliff file
+     * @return Header
+     */
+    public static XliffHeader read(File xlf) {
+        XMLEventReader reader = null;
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xlf))) {
+            reader = INPUT_FACTORY.createXMLEventReader(inputStream);
+
+            StartElement fileElement = null;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement() && event.asStartElement().getName().getLocalPart().equals("file")) {
+                    fileElement = event.asStartElement();
+                    break;
+                }
+            }
+            return new XliffHeader(fileElement);
+        }
+        catch (XMLStreamException | IOException e) {
+            throw new RuntimeException("Exception reading the header of the xliff " + xlf.getName(), e);
+        }
+        finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (XMLStreamException ignored) {}
+        }
+    }
+
+
+    private static String getAttribute(StartElement element, String name) {
+        if (element == null)
+            return null;
+        Attribute attribute = element.getAttributeByName(new QName(name));
+        return (attribute != null ? attribute.getValue() : null);
+    }
+
+
+    /**
+     * Get the canonical name of the filter which generated the XLIFF
+     * @return Filter class name, or null if it's missing
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+
+    /**
+     * Get the tool-id, containing the version of the converter which generated the XLIFF
+     * @return Tool id, or null if it's missing
+     */
+    public String getToolId() {
+        return toolId;
+    }
+
+
+    /**
+     * Get the original filename, before any conversion
+     * @return Filename, or null if it's missing
+     */
+    public String getOriginal() {
+        return original;
+    }
+
+
+    /**
+     * Get the datatype, with the format after the conversions
+     * @return Datatype, or null if it's missing
+     */
+    public String getDatatype() {
+        return datatype;
+    }
+
+
+    /**
+     * Get the format of the original file embedded into the XLF
+     * @return Original format
+     */
+    public Format getOriginalFormat() {
+        if (original == null)
+            throw new RuntimeException("The xlf is corrupted: it does not contain the original file");
+        try {
+            return Format.getFormat(original);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("The encoded file has no extension");
+        }
+    }
+
+
+    /**
+     * Get the filename of the embedded file, with the extension of the format it was converted to
+     * @return Filename
+     */
+    public String getConvertedFilename() {
+
+        // Filename
+        String filename = (original != null ? original : "");
+
+        // Replace the extension of the file for the one it was converted to
+        // Datatype structure is:  datatype="x-{FORMAT (after conversions)}"
+        if (datatype != null && datatype.length() > 2) {
+            filename = FilenameUtils.getBaseName(filename) + "." + datatype.substring(2);
+        }
+
+        // Return it
+        return filename;
+
+    }
+
+
+    /**
+     * Get source language
+     * @return Source language
+     */
+    public Locale getSourceLanguage() {
+        return sourceLanguage;
+    }
+
+
+    /**
+     * Get target language
+     * @return Target language
+     */
+    public Locale getTargetLanguage() {
+        return targetLanguage;
+    }
+
+}
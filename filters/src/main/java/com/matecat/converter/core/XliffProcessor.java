@@ -1,38 +1,36 @@
 package com.matecat.converter.core;
 
+import com.matecat.converter.core.metrics.Metrics;
 import com.matecat.converter.core.okapiclient.OkapiClient;
 import com.matecat.converter.core.okapiclient.OkapiPack;
 import com.matecat.converter.core.util.Config;
+import com.matecat.converter.core.util.EscapingXmlWriter;
 import com.matecat.converter.core.winconverter.WinConverterRouter;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.regex.Matcher;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 import java.util.regex.Pattern;
 
 
@@ -51,6 +49,14 @@ public class XliffProcessor {
     private static final String CONVERTER_VERSION = XliffBuilder.class.getPackage().getImplementationVersion();
     private static final Pattern PRODUCER_CONVERTER_VERSION_PATTERN = Pattern.compile("matecat-converter(\\s+([^\"]+))?");
 
+    // StAX factories are thread safe once configured
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
     // File we are processing
     private File xlf;
 
@@ -58,12 +64,8 @@ public class XliffProcessor {
     private OkapiPack pack;
 
     // Inner properties
-    private String originalFilename = null;
+    private XliffHeader header;
     private Format originalFormat;
-    private Locale sourceLanguage, targetLanguage;
-
-    private boolean filterExtracted = false;
-    private String filter;
 
 
     /**
@@ -86,14 +88,23 @@ public class XliffProcessor {
     }
 
 
+    /**
+     * Get the header of the XLF, reading it the first time
+     * @return Header
+     */
+    public XliffHeader getHeader() {
+        if (header == null)
+            header = XliffHeader.read(xlf);
+        return header;
+    }
+
+
     /**
      * Get source language
      * @return Source language
      */
     public Locale getSourceLanguage() {
-        if (sourceLanguage == null)
-            extractLanguages();
-        return sourceLanguage;
+        return getHeader().getSourceLanguage();
     }
 
 
@@ -102,72 +113,23 @@ public class XliffProcessor {
      * @return Target language
      */
     public Locale getTargetLanguage() {
-        if (targetLanguage == null)
-            extractLanguages();
-        return targetLanguage;
+        return getHeader().getTargetLanguage();
     }
 
 
     public String getFilter() {
-        if (filterExtracted) return filter;
-
-        filter = extractFilter();
-        filterExtracted = true;
-        return filter;
-    }
-
-    private String extractFilter() {
-        InputStream inputStream = null;
-        XMLStreamReader sax = null;
-        try {
-            inputStream = new FileInputStream(xlf);
-            sax = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
-
-            // Default value is null
-            String filter = null;
-
-            // Look for a <file> tag in the first 1000 chars
-            while (sax.hasNext() && sax.getLocation().getCharacterOffset() < 1000) {
-                int event = sax.next();
-
-                if (event == XMLStreamConstants.START_ELEMENT && sax.getLocalName().equals("file")) {
-                    filter = sax.getAttributeValue(null, "filter");
-                    break;
-                }
-            }
-
-            return filter;
-        }
-        catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        finally {
-            try {
-                if (sax != null) sax.close();
-            } catch (XMLStreamException ignored) {}
-            IOUtils.closeQuietly(inputStream);
-        }
+        return getHeader().getFilter();
     }
 
 
     /**
-     * Extract language from the XLF
+     * Get the format of the original file embedded into the XLF
+     * @return Original format
      */
-    private void extractLanguages() {
-        try (InputStream inputStream = new FileInputStream(xlf)) {
-            // Parse the XML document
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = documentBuilder.parse(inputStream);
-            Element firstFile = (Element) document.getElementsByTagName("file").item(0);
-
-            // Extract the languages
-            this.sourceLanguage = new Locale(firstFile.getAttribute("source-language"));
-            this.targetLanguage = new Locale(firstFile.getAttribute("target-language"));
-        }
-        catch (ParserConfigurationException | SAXException | IOException e) {
-            throw new RuntimeException("Exception extracting source/target languages from MateCat xliff", e);
-        }
+    public Format getOriginalFormat() {
+        if (originalFormat == null)
+            originalFormat = getHeader().getOriginalFormat();
+        return originalFormat;
     }
 
 
@@ -177,15 +139,11 @@ public class XliffProcessor {
      */
     public File getOriginalFile() throws Exception {
 
-        // Reconstruct the pack
-        if (pack == null)
-            reconstructPack();
-
-        // Get the original file
-        File originalFile = pack.getOriginalFile();
+        // Get the original file, from the pack if it has already been reconstructed
+        File originalFile = (pack != null ? pack.getOriginalFile() : extractOriginalFile());
 
         // If it does not have its original format, try to convert it
-        originalFile = convertToOriginalFormat(originalFile, originalFormat);
+        originalFile = convertToOriginalFormat(originalFile, originalFormat, Metrics.XLIFF2SOURCE);
 
         // Return it
         return originalFile;
@@ -202,13 +160,19 @@ public class XliffProcessor {
 
         // Reconstruct the pack
         if (pack == null)
-            reconstructPack();
+            reconstructPack(Metrics.XLIFF2ORIGINAL);
 
         // Generate the derived file
-        File derivedFile = OkapiClient.generateDerivedFile(pack);
+        long start = System.nanoTime();
+        File derivedFile;
+        try {
+            derivedFile = OkapiClient.generateDerivedFile(pack, header);
+        } finally {
+            Metrics.observe(Metrics.OKAPI, originalFormat, Metrics.XLIFF2ORIGINAL, start);
+        }
 
         // If it does not have its original format, try to convert it
-        derivedFile = convertToOriginalFormat(derivedFile, originalFormat);
+        derivedFile = convertToOriginalFormat(derivedFile, originalFormat, Metrics.XLIFF2ORIGINAL);
 
         // Return it
         return derivedFile;
@@ -220,15 +184,19 @@ public class XliffProcessor {
      * Try to convert a file to its original format
      * @param file File
      * @param originalFormat Original format
+     * @param direction Direction of the conversion, for the metrics
      * @return Converted file if possible, input file otherwise
      */
-    private static File convertToOriginalFormat(File file, Format originalFormat) {
+    private static File convertToOriginalFormat(File file, Format originalFormat, String direction) {
         Format currentFormat = Format.getFormat(file);
         if (Config.winConvEnabled && currentFormat != originalFormat && !Format.isOCRFormat(originalFormat)) {
+            long start = System.nanoTime();
             try {
                 file = WinConverterRouter.convert(file, originalFormat);
             } catch (Exception e) {
                 throw new RuntimeException("Exception while using WinConverterRouter.convert", e);
+            } finally {
+                Metrics.observe(Metrics.WINCONVERTER, originalFormat, direction, start);
             }
         }
         return file;
@@ -237,156 +205,330 @@ public class XliffProcessor {
 
     /**
      * Reconstruct the original Okapi result pack from the embedded files
+     *
+     * The XLF is read in a single streaming pass: the embedded files are decoded straight into the pack while they
+     * are read, and the rest of the document is written to the work folder.
+     * @param direction Direction of the conversion, for the metrics
      */
-    private void reconstructPack() {
-
-        try (InputStream inputStream = new FileInputStream(xlf)) {
-
-            // Output folder
-            File packFolder = new File(xlf.getParentFile().getPath() + File.separator + "pack");
-            if (packFolder.exists())
-                FileUtils.cleanDirectory(packFolder);
-            else
-                packFolder.mkdir();
+    private void reconstructPack(String direction) {
 
-            // Parse the XML document
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            Document document = documentBuilder.parse(inputStream);
+        long start = System.nanoTime();
+        try {
 
-            NodeList fileElements = document.getElementsByTagName("file");
-            Element originalFileElement = (Element) fileElements.item(0);
-            Element manifestElement = (Element) fileElements.item(1);
+            // Output folders
+            File packFolder = createCleanFolder(new File(xlf.getParentFile().getPath() + File.separator + OkapiPack.PACK_FILENAME));
+            File originalFolder = createCleanFolder(new File(packFolder.getPath() + File.separator + OkapiPack.ORIGINAL_DIRECTORY_NAME));
+            File workFolder = createCleanFolder(new File(packFolder.getPath() + File.separator + OkapiPack.WORK_DIRECTORY_NAME));
 
-            // Reconstruct the manifest
-            String originalFilename = reconstructManifest(packFolder, manifestElement);
+            // The names of the original file and the work xlf are in the manifest,
+            // which comes after the original file: write them with temporary names
+            File originalFile = File.createTempFile("original", ".tmp", packFolder);
+            File workXlf = File.createTempFile("work", ".tmp", packFolder);
 
-            checkProducerVersion(originalFileElement);
+            EmbeddedFiles embeddedFiles = unpack(originalFile, workXlf);
 
-            reconstructOriginalFile(packFolder, originalFileElement, originalFilename);
+            // The header is the one of the embedded original file
+            if (header == null)
+                header = new XliffHeader(embeddedFiles.originalFileElement);
+            getOriginalFormat();
 
-            extractOriginalFormat(originalFileElement);
+            // Reconstruct the manifest
+            String originalFilename = reconstructManifest(packFolder, embeddedFiles.manifestElement, embeddedFiles.manifest);
 
-            // Extract the languages
-            this.sourceLanguage = new Locale(originalFileElement.getAttribute("source-language"));
-            this.targetLanguage = new Locale(originalFileElement.getAttribute("target-language"));
+            checkProducerVersion(header.getToolId());
 
-            // Reconstruct the original xlf
-            reconstructOriginalXlf(packFolder, document, originalFileElement, manifestElement, originalFilename);
+            // Move the original file and the xlf where Okapi expects them
+            if (originalFilename == null) {
+                originalFilename = header.getConvertedFilename();
+            }
+            Files.move(originalFile.toPath(), new File(originalFolder.getPath() + File.separator + originalFilename).toPath());
+            Files.move(workXlf.toPath(), new File(workFolder.getPath() + File.separator + originalFilename + ".xlf").toPath());
 
             // Generate the pack (which will check the extracted files)
             this.pack = new OkapiPack(packFolder);
 
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+        } catch (XMLStreamException | IOException e) {
             throw new RuntimeException("Exception extracting Okapi pack from MateCat xliff", e);
+        } finally {
+            Metrics.observe(Metrics.XLIFF_RECONSTRUCT, originalFormat, direction, start);
         }
 
     }
 
+
     /**
-     * Checks the tool-id attribute of the provided <file> element, extracts
-     * the XLIFF producer converter version and logs some warnings if the
-     * producer version does not match the version of this server.
+     * Extract only the original file, without reconstructing the pack
+     *
+     * The XLF is read only until the end of the manifest, so the body is never parsed.
+     * @return Original file
      */
-    private static void checkProducerVersion(Element file) {
-        final String toolId = file.getAttribute("tool-id");
-        if (toolId != null) {
-            final Matcher matcher = PRODUCER_CONVERTER_VERSION_PATTERN.matcher(toolId);
-            if (matcher.find()) {
-                final String xliffVersion = matcher.group(2);
-                if (xliffVersion == null) {
-                    LOGGER.warn("Missing producer version in input XLIFF");
-                } else {
-                    if (CONVERTER_VERSION == null) {
-                        LOGGER.warn("XLIFF producer version is " + xliffVersion + ", but server version is unknown (version available only when running from a jar)");
-                    } else if (!xliffVersion.equals(CONVERTER_VERSION)) {
-                        LOGGER.warn("Converters versions mismatch: " + xliffVersion + " (XLIFF) vs " + CONVERTER_VERSION + " (server)");
-                    } else {
-                        // In this last condition converters versions match,
-                        // so everything is perfect!
+    private File extractOriginalFile() {
+
+        long start = System.nanoTime();
+        try {
+
+            // Output folder
+            File originalFolder = createCleanFolder(new File(xlf.getParentFile().getPath() + File.separator + OkapiPack.ORIGINAL_DIRECTORY_NAME));
+
+            // The name of the original file is in the manifest, which comes after it
+            File originalFile = File.createTempFile("original", ".tmp", xlf.getParentFile());
+            EmbeddedFiles embeddedFiles = unpack(originalFile, null);
+
+            if (header == null)
+                header = new XliffHeader(embeddedFiles.originalFileElement);
+            getOriginalFormat();
+
+            String originalFilename = getOriginalFilename(new String(embeddedFiles.manifest, StandardCharsets.UTF_8));
+            if (originalFilename == null) {
+                originalFilename = header.getConvertedFilename();
+            }
+            return Files.move(originalFile.toPath(), new File(originalFolder.getPath() + File.separator + originalFilename).toPath()).toFile();
+
+        } catch (XMLStreamException | IOException e) {
+            throw new RuntimeException("Exception extracting original file from MateCat xliff", e);
+        } finally {
+            Metrics.observe(Metrics.XLIFF_RECONSTRUCT, originalFormat, Metrics.XLIFF2SOURCE, start);
+        }
+
+    }
+
+
+    /**
+     * Create a folder, or empty it if it already exists
+     * @param folder Folder
+     * @return The same folder
+     */
+    private static File createCleanFolder(File folder) throws IOException {
+        if (folder.exists())
+            FileUtils.cleanDirectory(folder);
+        else
+            folder.mkdir();
+        return folder;
+    }
+
+
+    /**
+     * The two file elements embedded by the XliffBuilder
+     */
+    private static class EmbeddedFiles {
+        private StartElement originalFileElement;
+        private StartElement manifestElement;
+        private byte[] manifest;
+    }
+
+
+    /**
+     * Split the XLF into the embedded files and the original XLF used to derive it
+     *
+     * The original XLF is obtained by simply removing the file and manifest XML elements.
+     * @param originalFile File where the original file is decoded
+     * @param workXlf File where the original XLF is written, or null to stop reading after the manifest
+     * @return Elements of the embedded files, and the decoded manifest
+     */
+    private EmbeddedFiles unpack(File originalFile, File workXlf) throws XMLStreamException, IOException {
+
+        EmbeddedFiles embeddedFiles = new EmbeddedFiles();
+        XMLEventReader reader = null;
+        EscapingXmlWriter writer = null;
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xlf));
+             OutputStream outputStream = (workXlf != null ? new BufferedOutputStream(new FileOutputStream(workXlf)) : null)) {
+
+            reader = INPUT_FACTORY.createXMLEventReader(inputStream);
+            // The output is always UTF-8, whatever the encoding of the input
+            if (outputStream != null)
+                writer = new EscapingXmlWriter(outputStream);
+
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+
+                if (event.isStartElement()) {
+                    StartElement element = event.asStartElement();
+                    String name = element.getName().getLocalPart();
+
+                    // The first two files are the original file and the manifest
+                    if (name.equals("file") && embeddedFiles.originalFileElement == null) {
+                        embeddedFiles.originalFileElement = element;
+                        try (OutputStream originalContent = new BufferedOutputStream(new FileOutputStream(originalFile))) {
+                            decodeInternalFile(reader, originalContent);
+                        }
+                        continue;
+                    }
+                    if (name.equals("file") && embeddedFiles.manifestElement == null) {
+                        embeddedFiles.manifestElement = element;
+                        ByteArrayOutputStream manifestContent = new ByteArrayOutputStream();
+                        decodeInternalFile(reader, manifestContent);
+                        embeddedFiles.manifest = manifestContent.toByteArray();
+                        if (writer == null)
+                            break;
+                        continue;
+                    }
+
+                    // Remove the leading underscore added to all the <ex> ids by the
+                    // XliffBuilder (see the comment there for more background)
+                    if (name.equals("ex")) {
+                        event = removeIdPrefix(element);
                     }
                 }
-            } else {
-                LOGGER.warn("Bad tool-id attribute");
+
+                if (writer != null)
+                    writer.add(event);
             }
+            if (writer != null)
+                writer.flush();
+
+        } finally {
+            if (reader != null) reader.close();
         }
+
+        if (embeddedFiles.manifestElement == null)
+            throw new RuntimeException("The xlf is corrupted: it does not contain the original file and the manifest");
+        return embeddedFiles;
+
     }
 
 
     /**
-     * Extract the original format from the embedded information
-     * @param fileElement XML element from the file
+     * Decode the internal-file of an embedded file element, consuming the events until the end of the element
+     * @param reader Reader positioned just after the start of the file element
+     * @param output Stream where the decoded file is written
      */
-    private void extractOriginalFormat(Element fileElement) {
+    private static void decodeInternalFile(XMLEventReader reader, OutputStream output) throws XMLStreamException, IOException {
+        Base64StreamDecoder decoder = null;
+        InflaterOutputStream inflaterStream = null;
+        // Owned here, so its native memory is released without closing the output
+        Inflater inflater = null;
         try {
-            String filename = fileElement.getAttribute("original");
-            this.originalFormat = Format.getFormat(filename);
+            int depth = 1;
+            while (depth > 0) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                    StartElement element = event.asStartElement();
+                    if (element.getName().getLocalPart().equals("internal-file")) {
+                        // Files compressed by the XliffBuilder are inflated after decoding them
+                        if (XliffBuilder.COMPRESSED_FORM.equals(getAttribute(element, "form"))) {
+                            if (inflater == null) inflater = new Inflater();
+                            else inflater.reset();
+                            inflaterStream = new InflaterOutputStream(output, inflater);
+                            decoder = new Base64StreamDecoder(inflaterStream);
+                        } else {
+                            decoder = new Base64StreamDecoder(output);
+                        }
+                    }
+                }
+                else if (event.isEndElement()) {
+                    depth--;
+                    if (decoder != null && event.asEndElement().getName().getLocalPart().equals("internal-file")) {
+                        decoder.close();
+                        decoder = null;
+                        if (inflaterStream != null) {
+                            inflaterStream.finish();
+                            inflaterStream = null;
+                        }
+                    }
+                }
+                else if (event.isCharacters() && decoder != null) {
+                    decoder.write(event.asCharacters().getData());
+                }
+            }
         }
-        catch (Exception e1) {
-            throw new RuntimeException("The encoded file has no extension");
+        finally {
+            if (inflater != null) inflater.end();
         }
     }
 
 
     /**
-     * Get the original filename from the embedded information
-     * @param fileElement XML element from the file
-     * @return Filename
+     * Base64 decoder of a text received in pieces, which writes the decoded bytes as soon as possible
      */
-    private String getFilename(Element fileElement) {
+    private static class Base64StreamDecoder {
 
-        // Filename
-        String filename = fileElement.getAttribute("original");
+        // Base64 characters decoded at once: a multiple of 4, so the pieces can be decoded separately
+        private static final int CHUNK_LENGTH = 4 * 16 * 1024;
 
-        // Replace the extension of the file for the one it was converted to
-        // Datatype structure is:  datatype="x-{FORMAT (after conversions)}"
-        try {
-            String datatype = fileElement.getAttribute("datatype");
-            String convertedExtension = datatype.substring(2);
-            filename = FilenameUtils.getBaseName(filename) + "." + convertedExtension;
+        private final OutputStream output;
+        private final StringBuilder pending = new StringBuilder();
+
+        private Base64StreamDecoder(OutputStream output) {
+            this.output = output;
         }
-        catch (Exception ignore) {}
 
-        // Return it
-        return filename;
+        private void write(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    pending.append(c);
+                }
+            }
+            if (pending.length() >= CHUNK_LENGTH) {
+                decode(pending.length() / 4 * 4);
+            }
+        }
+
+        private void close() throws IOException {
+            decode(pending.length());
+            output.flush();
+        }
+
+        private void decode(int length) throws IOException {
+            output.write(Base64.getDecoder().decode(pending.substring(0, length)));
+            pending.delete(0, length);
+        }
 
     }
 
 
     /**
-     * Extract the original file and save it in the pack
-     * @param packFolder Pack's folder
-     * @param fileElement XML element containing the file
+     * Remove the leading underscore from the id of an element
      */
-    private void reconstructOriginalFile(File packFolder, Element fileElement, String originalFilename) {
-
-        try {
-
-            // Filename
-            if (originalFilename == null) {
-                originalFilename = getFilename(fileElement);
+    private static StartElement removeIdPrefix(StartElement element) {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<?> iterator = element.getAttributes();
+        while (iterator.hasNext()) {
+            Attribute attribute = (Attribute) iterator.next();
+            if (attribute.getName().getLocalPart().equals("id") && attribute.getName().getNamespaceURI().isEmpty()
+                    && attribute.getValue().startsWith("_")) {
+                attribute = EVENT_FACTORY.createAttribute(attribute.getName(), attribute.getValue().substring(1));
             }
+            attributes.add(attribute);
+        }
+        return EVENT_FACTORY.createStartElement(element.getName(), attributes.iterator(), element.getNamespaces());
+    }
 
-            // Contents
-            Element internalFileElement = (Element) fileElement.getElementsByTagName("internal-file").item(0);
-            String encodedFile = internalFileElement.getTextContent().trim();
-            byte[] originalFileBytes = Base64.getDecoder().decode(encodedFile);
-
-            // Create original folder
-            File originalFolder = new File(packFolder.getPath() + File.separator + OkapiPack.ORIGINAL_DIRECTORY_NAME);
-            if (originalFolder.exists())
-                FileUtils.cleanDirectory(originalFolder);
-            else
-                originalFolder.mkdir();
 
-            // Reconstruct the original file
-            File originalFile = new File(originalFolder.getPath() + File.separator + originalFilename);
-            originalFile.createNewFile();
-            FileUtils.writeByteArrayToFile(originalFile, originalFileBytes);
+    /**
+     * Get an attribute of an element
+     * @return Attribute value, or an empty string if it's missing
+     */
+    private static String getAttribute(StartElement element, String name) {
+        Attribute attribute = element.getAttributeByName(new QName(name));
+        return (attribute != null ? attribute.getValue() : "");
+    }
 
-        }
-        catch (Exception e) {
-            throw new RuntimeException("Exception extracting original file from MateCat xliff", e);
+    /**
+     * Checks the tool-id attribute of the original <file> element, extracts
+     * the XLIFF producer converter version and logs some warnings if the
+     * producer version does not match the version of this server.
+     */
+    private static void checkProducerVersion(String toolId) {
+        // A missing tool-id is as bad as an empty one
+        final Matcher matcher = PRODUCER_CONVERTER_VERSION_PATTERN.matcher(toolId != null ? toolId : "");
+        if (matcher.find()) {
+            final String xliffVersion = matcher.group(2);
+            if (xliffVersion == null) {
+                LOGGER.warn("Missing producer version in input XLIFF");
+            } else {
+                if (CONVERTER_VERSION == null) {
+                    LOGGER.warn("XLIFF producer version is " + xliffVersion + ", but server version is unknown (version available only when running from a jar)");
+                } else if (!xliffVersion.equals(CONVERTER_VERSION)) {
+                    LOGGER.warn("Converters versions mismatch: " + xliffVersion + " (XLIFF) vs " + CONVERTER_VERSION + " (server)");
+                } else {
+                    // In this last condition converters versions match,
+                    // so everything is perfect!
+                }
+            }
+        } else {
+            LOGGER.warn("Bad tool-id attribute");
         }
     }
 
@@ -395,22 +537,22 @@ public class XliffProcessor {
      * Reconstruct the manifest and save it in the pack
      * @param packFolder Pack's folder
      * @param manifestElement XML element containing the manifest
+     * @param manifestBytes Decoded manifest
+     * @return Original filename, if found in the manifest
      */
-    private String reconstructManifest(File packFolder, Element manifestElement) {
+    private String reconstructManifest(File packFolder, StartElement manifestElement, byte[] manifestBytes) {
 
         try {
 
             // Check that it's the manifest
-            if (!manifestElement.getAttribute("original").equals(OkapiPack.MANIFEST_FILENAME))
+            if (!getAttribute(manifestElement, "original").equals(OkapiPack.MANIFEST_FILENAME))
                 throw new RuntimeException("The xlf is corrupted: it does not contain a manifest");
 
             // Extract language
-            String targetLanguage = manifestElement.getAttribute("target-language");
+            String targetLanguage = getAttribute(manifestElement, "target-language");
 
             // Manifest contents
-            Element internalFileElement = (Element) manifestElement.getElementsByTagName("internal-file").item(0);
-            String encodedManifest = internalFileElement.getTextContent().trim();
-            String manifest = new String(Base64.getDecoder().decode(encodedManifest), StandardCharsets.UTF_8);
+            String manifest = new String(manifestBytes, StandardCharsets.UTF_8);
             // MateCAT caches produced XLIFFs and reuses them to save
             // file conversions, updating just the source and target
             // languages when needed.
@@ -428,18 +570,7 @@ public class XliffProcessor {
             manifest = manifest.replaceFirst("(<manifest [^>]* ?target=\")[^\"]+\"", "$1" + targetLanguage + "\"");
 
             // Extract source filename from manifest
-            // Originally this class used to extract the original filename
-            // from the "original" attribute of the first <file> element in
-            // the XLIFF. Unfortunately some bugs in the encoding of the
-            // filename in the HTTP communication caused many XLIFFs to be
-            // created with corrupted text inside the "original" attribute.
-            // So the pack was reconstructed using the "original" attribute,
-            // but Okapi could not find the files because the filenames
-            // in the manifest were different. To solve this bug I ignore
-            // the "original" attribute and extract it directly from manifest.
-            // TODO: remove the "original" attribute and rethink class design
-            Matcher matcher = Pattern.compile(" relativeInputPath *= *\"(.+?)\"").matcher(manifest);
-            String originalFilename = (matcher.find() ? StringEscapeUtils.unescapeXml(matcher.group(1)) : null);
+            String originalFilename = getOriginalFilename(manifest);
 
             // Reconstruct the manifest file
             File manifestFile = new File(packFolder.getPath() + File.separator + OkapiPack.MANIFEST_FILENAME);
@@ -455,74 +586,23 @@ public class XliffProcessor {
 
 
     /**
-     * Reconstruct the original XLF used to derive this XLF; and save it into the work folder
-     * inside the pack
-     *
-     * This is done by simply removing the file and manifest XML elements.
-     * @param packFolder Pack's folder
-     * @param document XML document
-     * @param fileElement XML element containing the file
-     * @param manifestElement XML element containing the manifest
+     * Extract the original filename from the manifest
+     * @param manifest Manifest contents
+     * @return Original filename, or null if it's not found
      */
-    private void reconstructOriginalXlf(File packFolder, Document document, Element fileElement, Element manifestElement, String originalFilename) {
-
-        try {
-
-            // Get root
-            Element root = document.getDocumentElement();
-
-            // Filename
-            if (originalFilename == null) {
-                originalFilename = getFilename(fileElement);
-            }
-
-            // Obtain the original xlf
-            root.removeChild(fileElement);
-            root.removeChild(manifestElement);
-
-            // Remove the leading underscore added to all the <ex> ids by the
-            // XliffBuilder (see the comment there for more background)
-            NodeList exElements = document.getElementsByTagName("ex");
-            for (int i = 0; i < exElements.getLength(); i++) {
-                Element exElement = (Element) exElements.item(i);
-                if (exElement.getAttribute("id").startsWith("_")) {
-                    exElement.setAttribute("id", exElement.getAttribute("id").substring(1));
-                }
-            }
-
-            // Create work folder
-            File workFolder = new File(packFolder.getPath() + File.separator + OkapiPack.WORK_DIRECTORY_NAME);
-            if (workFolder.exists())
-                FileUtils.cleanDirectory(workFolder);
-            else
-                workFolder.mkdir();
-
-            // Save the file
-
-            String xlfOutputPath = workFolder.getPath() + File.separator + originalFilename + ".xlf";
-
-            // The Java Transformer doesn't update the XML prolog with the
-            // output encoding.
-            // For example, if you read a UTF-16 XML and rewrite it as UTF-8,
-            // the Transformer still writes the prolog with "encoding=UTF-16",
-            // messing up the file.
-            // Since our output encoding will always be UTF-8 (because we use
-            // FileOutputStream, that uses the default Java charset, that we
-            // ensured is UTF-8 in the Main class) I tell Transformer to not
-            // write the prolog and I write it myself in the correct way.
-            try (OutputStream outputStream = new FileOutputStream(xlfOutputPath)) {
-                outputStream.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>".getBytes());
-                StreamResult streamResult = new StreamResult(outputStream);
-
-                Transformer transformer = TransformerFactory.newInstance().newTransformer();
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-                DOMSource domSource = new DOMSource(document);
-                transformer.transform(domSource, streamResult);
-            }
-
-        } catch (TransformerException | IOException e) {
-            e.printStackTrace();
-        }
+    private static String getOriginalFilename(String manifest) {
+        // Originally this class used to extract the original filename
+        // from the "original" attribute of the first <file> element in
+        // the XLIFF. Unfortunately some bugs in the encoding of the
+        // filename in the HTTP communication caused many XLIFFs to be
+        // created with corrupted text inside the "original" attribute.
+        // So the pack was reconstructed using the "original" attribute,
+        // but Okapi could not find the files because the filenames
+        // in the manifest were different. To solve this bug I ignore
+        // the "original" attribute and extract it directly from manifest.
+        // TODO: remove the "original" attribute and rethink class design
+        Matcher matcher = Pattern.compile(" relativeInputPath *= *\"(.+?)\"").matcher(manifest);
+        return (matcher.find() ? StringEscapeUtils.unescapeXml(matcher.group(1)) : null);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.matecat.converter.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 key of a cache entry, built from the contents of files and strings
+ *
+ * Every part is prefixed by its length, so different sequences of parts never give the same key.
+ */
+public class CacheKey {
+
+    private final MessageDigest digest;
+
+
+    /**
+     * Constructor of an empty key
+     */
+    public CacheKey() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+
+    /**
+     * Add a string to the key
+     * @param value String (can be null)
+     * @return This key
+     */
+    public CacheKey add(String value) {
+        if (value == null) {
+            update(-1);
+            return this;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        update(bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+
+    /**
+     * Add bytes to the key
+     * @param value Bytes
+     * @return This key
+     */
+    public CacheKey add(byte[] value) {
+        update(value.length);
+        digest.update(value);
+        return this;
+    }
+
+
+    /**
+     * Add the contents of a file to the key
+     * @param file File
+     * @return This key
+     */
+    public CacheKey add(File file) {
+        update(file.length());
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the file " + file, e);
+        }
+        return this;
+    }
+
+
+    /**
+     * Get the key as hexadecimal string, which can be used as filename. No more parts can be added afterwards.
+     * @return Hexadecimal SHA-256 of the parts
+     */
+    public String build() {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+
+    private void update(long value) {
+        for (int i = 7; i >= 0; i--)
+            digest.update((byte) (value >>> (i * 8)));
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.matecat.converter.core.cache;
+
+import com.matecat.converter.core.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * On-disk LRU cache of files, keyed by a content hash
+ *
+ * Every entry is a folder named by its key, holding the cached file with its original name. The cached files are
+ * never handed out: lookups copy them to the folder of the caller, so entries can be evicted at any time. The least
+ * recently used entries are deleted when the total size exceeds the limit; the order survives restarts through the
+ * modification time of the entry folders.
+ *
+ * Concurrent lookups of the same missing key are coalesced: only the first one computes the file, and the others
+ * wait for it and copy its result.
+ */
+public class DiskCache {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final String name;
+    private final File folder;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+    private long size = 0;
+
+
+    /**
+     * Constructor, loading the entries already in the folder
+     * @param name Name of the cache, reported in the metrics
+     * @param folder Folder of the entries
+     * @param maxSize Maximum size of the entries, in bytes
+     */
+    public DiskCache(String name, File folder, long maxSize) {
+        this.name = name;
+        this.folder = folder;
+        this.maxSize = maxSize;
+
+        if (!folder.isDirectory() && !folder.mkdirs())
+            throw new RuntimeException("Cannot create the cache folder " + folder);
+        File[] files = folder.listFiles();
+        if (files == null)
+            throw new RuntimeException("Cannot read the cache folder " + folder);
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File entry : files) {
+            File[] content = entry.listFiles();
+            if (entry.getName().endsWith(TMP_SUFFIX) || content == null || content.length != 1) {
+                // Left by an interrupted put
+                FileUtils.deleteQuietly(entry);
+                continue;
+            }
+            long entrySize = content[0].length();
+            entries.put(entry.getName(), entrySize);
+            size += entrySize;
+        }
+        evict();
+
+        LOGGER.info("Cache {} ready: {} entries, {} bytes", name, entries.size(), size);
+    }
+
+
+    /**
+     * Get the cached file of a key, or compute and cache it if it's missing
+     * @param key Key, as returned by CacheKey.build()
+     * @param targetFolder Folder where the cached file is copied, keeping its name
+     * @param computation Computation of the file when it's not cached
+     * @return Copy of the cached file in the target folder, or the computed file
+     * @throws Exception If the computation fails
+     */
+    public File get(String key, File targetFolder, Callable<File> computation) throws Exception {
+        return get(key, targetFolder, null, computation, null);
+    }
+
+
+    /**
+     * Get the cached file of a key, or compute it and cache it only if it's cacheable
+     * @param key Key, as returned by CacheKey.build()
+     * @param targetFolder Folder where the cached file is copied, keeping its name
+     * @param computation Computation of the file when it's not cached
+     * @param cacheable Checked after the computation, on its thread: false if its result must not be stored
+     * @return Copy of the cached file in the target folder, or the computed file
+     * @throws Exception If the computation fails
+     */
+    public File get(String key, File targetFolder, Callable<File> computation, BooleanSupplier cacheable) throws Exception {
+        return get(key, targetFolder, null, computation, cacheable);
+    }
+
+
+    /**
+     * Get the cached file of a key, or compute and cache it if it's missing
+     * @param key Key, as returned by CacheKey.build()
+     * @param target File where the cached file is copied
+     * @param computation Computation of the file when it's not cached, expected to write the target file
+     * @return Target file, or the computed file
+     * @throws Exception If the computation fails
+     */
+    public File getAs(String key, File target, Callable<File> computation) throws Exception {
+        return get(key, target.getParentFile(), target.getName(), computation, null);
+    }
+
+
+    private File get(String key, File targetFolder, String targetName, Callable<File> computation, BooleanSupplier cacheable) throws Exception {
+        File cached = copy(key, targetFolder, targetName);
+        Metrics.countCacheLookup(name, cached != null);
+        if (cached != null)
+            return cached;
+
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            // The same file is already being computed: wait for it
+            try {
+                running.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+                throw e;
+            }
+            cached = copy(key, targetFolder, targetName);
+            // Not cached (too big, not cacheable, or already evicted): compute it again
+            return (cached != null ? cached : computation.call());
+        }
+
+        try {
+            File result = computation.call();
+            if (cacheable == null || cacheable.getAsBoolean())
+                put(key, result);
+            future.complete(result);
+            return result;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+
+    /**
+     * Get the number of cached entries
+     * @return Entries
+     */
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+
+    /**
+     * Get the size of the cached entries
+     * @return Size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Copy the cached file of a key to a folder, with the given name or its own if null
+     * @return Copy, or null if the key isn't cached
+     */
+    private File copy(String key, File targetFolder, String targetName) {
+        synchronized (this) {
+            if (entries.get(key) == null)
+                return null;
+        }
+        File entry = new File(folder, key);
+        File[] content = entry.listFiles();
+        if (content == null || content.length != 1)
+            return null;
+        File target = new File(targetFolder, (targetName != null ? targetName : content[0].getName()));
+        try {
+            Files.copy(content[0].toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // Evicted meanwhile
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Cannot copy the cached file {}", content[0], e);
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return target;
+    }
+
+
+    /**
+     * Add a file to the cache, unless it's bigger than the whole cache
+     */
+    private void put(String key, File file) {
+        long fileSize = file.length();
+        if (fileSize > maxSize)
+            return;
+
+        File tmp = new File(folder, key + "." + UUID.randomUUID() + TMP_SUFFIX);
+        File entry = new File(folder, key);
+        try {
+            Files.createDirectory(tmp.toPath());
+            Files.copy(file.toPath(), new File(tmp, file.getName()).toPath());
+            synchronized (this) {
+                if (entries.containsKey(key))
+                    return;
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                entries.put(key, fileSize);
+                size += fileSize;
+                evict();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot cache the file {}", file, e);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+
+    /**
+     * Delete the least recently used entries until the size is within the limit
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            FileUtils.deleteQuietly(new File(folder, eldest.getKey()));
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.matecat.converter.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets
+ *
+ * Observations are counted lock-free, so the conversions don't contend to record them.
+ */
+public class Histogram {
+
+    // Upper bounds of the buckets, in seconds
+    static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+
+    /**
+     * Constructor
+     */
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+
+    /**
+     * Record an observation
+     * @param nanos Duration in nanoseconds
+     */
+    public void observe(long nanos) {
+        double seconds = nanos / 1e9;
+        int bucket = 0;
+        while (bucket < BUCKETS.length && seconds > BUCKETS[bucket])
+            bucket++;
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+
+    /**
+     * Get the cumulative counts of the buckets, the last one being +Inf
+     * @return Number of observations less than or equal to every bucket bound
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+
+    /**
+     * Get the sum of all the observations
+     * @return Sum in seconds
+     */
+    public double getSum() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+}
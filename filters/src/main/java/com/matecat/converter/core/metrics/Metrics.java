@@ -0,0 +1,254 @@
+package com.matecat.converter.core.metrics;
+
+import com.matecat.converter.core.Format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Conversion metrics
+ *
+ * Registry of the latencies of every conversion stage, labelled by format and direction, and of the errors,
+ * transferred bytes and cache lookups. It's written in the Prometheus text format by the /metrics endpoint.
+ */
+public class Metrics {
+
+    /**
+     * Private constructor (static class)
+     */
+    private Metrics() {}
+
+    // Directions
+    public static final String ORIGINAL2XLIFF = "original2xliff";
+    public static final String XLIFF2ORIGINAL = "xliff2original";
+    public static final String XLIFF2SOURCE = "xliff2source";
+    public static final String OTHER = "other";
+
+    // Stages
+    public static final String TOTAL = "total";
+    public static final String WINCONVERTER = "winconverter";
+    public static final String ENCODING_DETECTION = "encoding_detection";
+    public static final String OKAPI = "okapi";
+    public static final String XLIFF_BUILD = "xliff_build";
+    public static final String XLIFF_RECONSTRUCT = "xliff_reconstruct";
+    public static final String JSON_SERIALIZATION = "json_serialization";
+
+    private static final String PREFIX = "matecat_converter_";
+
+    // Metrics by their labels, already formatted
+    private static final Map<String, Histogram> stages = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> bytesIn = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> bytesOut = new ConcurrentHashMap<>();
+
+    // Paragraphs whose segmentation was too slow, by rules file
+    private static final Map<String, LongAdder> segmentationTimeouts = new ConcurrentHashMap<>();
+
+    // Cache lookups by cache name
+    private static final Map<String, LongAdder> cacheHits = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> cacheMisses = new ConcurrentHashMap<>();
+
+
+    /**
+     * Record the duration of a stage, from its start until now
+     * @param stage Stage
+     * @param format Format of the converted file (can be null)
+     * @param direction Direction of the conversion
+     * @param startNanos Start of the stage, as returned by System.nanoTime()
+     */
+    public static void observe(String stage, Format format, String direction, long startNanos) {
+        String labels = labels("stage", stage, "format", formatLabel(format), "direction", direction);
+        stages.computeIfAbsent(labels, key -> new Histogram()).observe(System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * Count a failed conversion
+     * @param format Format of the converted file (can be null)
+     * @param direction Direction of the conversion
+     * @param error Exception raised, labelled by the type of its root cause
+     */
+    public static void countError(Format format, String direction, Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause() != cause)
+            cause = cause.getCause();
+        String labels = labels("format", formatLabel(format), "direction", direction, "exception", cause.getClass().getSimpleName());
+        errors.computeIfAbsent(labels, key -> new LongAdder()).increment();
+    }
+
+
+    /**
+     * Count the bytes of a request and its response
+     * @param direction Direction of the conversion
+     * @param received Bytes received
+     * @param sent Bytes sent
+     */
+    public static void countBytes(String direction, long received, long sent) {
+        String labels = labels("direction", direction);
+        bytesIn.computeIfAbsent(labels, key -> new LongAdder()).add(received);
+        bytesOut.computeIfAbsent(labels, key -> new LongAdder()).add(sent);
+    }
+
+
+    /**
+     * Count a paragraph whose segmentation exceeded its time budget
+     * @param rules Name of the segmentation rules file
+     */
+    public static void countSegmentationTimeout(String rules) {
+        segmentationTimeouts.computeIfAbsent(rules, key -> new LongAdder()).increment();
+    }
+
+
+    /**
+     * Count a cache lookup
+     * @param cache Name of the cache
+     * @param hit True if the value was found in the cache
+     */
+    public static void countCacheLookup(String cache, boolean hit) {
+        (hit ? cacheHits : cacheMisses).computeIfAbsent(cache, key -> new LongAdder()).increment();
+        (hit ? cacheMisses : cacheHits).computeIfAbsent(cache, key -> new LongAdder());
+    }
+
+
+    /**
+     * Get the names of the caches which have been used
+     * @return Cache names, sorted
+     */
+    public static Set<String> getCaches() {
+        return new TreeSet<>(cacheHits.keySet());
+    }
+
+
+    /**
+     * Get the hits of a cache
+     * @param cache Name of the cache
+     * @return Lookups which found the value
+     */
+    public static long getCacheHits(String cache) {
+        LongAdder hits = cacheHits.get(cache);
+        return (hits == null ? 0 : hits.sum());
+    }
+
+
+    /**
+     * Get the misses of a cache
+     * @param cache Name of the cache
+     * @return Lookups which didn't find the value
+     */
+    public static long getCacheMisses(String cache) {
+        LongAdder misses = cacheMisses.get(cache);
+        return (misses == null ? 0 : misses.sum());
+    }
+
+
+    /**
+     * Get the format of a file, without failing if it's not supported
+     * @param filename Filename
+     * @return Format, or null if the extension isn't supported
+     */
+    public static Format getFormat(String filename) {
+        try {
+            return Format.getFormat(filename);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Write all the metrics in the Prometheus text format
+     * @param writer Writer
+     * @throws IOException If the writer fails
+     */
+    public static void write(Writer writer) throws IOException {
+
+        // Stages
+        writer.write("# HELP " + PREFIX + "stage_duration_seconds Duration of every conversion stage\n");
+        writer.write("# TYPE " + PREFIX + "stage_duration_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(stages).entrySet()) {
+            String labels = entry.getKey();
+            long[] counts = entry.getValue().getCumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                String le = (i < Histogram.BUCKETS.length ? Double.toString(Histogram.BUCKETS[i]) : "+Inf");
+                writer.write(PREFIX + "stage_duration_seconds_bucket{" + labels + ",le=\"" + le + "\"} " + counts[i] + "\n");
+            }
+            writer.write(PREFIX + "stage_duration_seconds_sum{" + labels + "} " + entry.getValue().getSum() + "\n");
+            writer.write(PREFIX + "stage_duration_seconds_count{" + labels + "} " + counts[counts.length - 1] + "\n");
+        }
+
+        // Counters
+        writeCounters(writer, "errors_total", "Failed conversions by exception type", errors);
+        writeCounters(writer, "received_bytes_total", "Bytes received in the requests", bytesIn);
+        writeCounters(writer, "sent_bytes_total", "Bytes sent in the responses", bytesOut);
+        writeCounters(writer, "cache_hits_total", "Cache lookups which found the value", labelled("cache", cacheHits));
+        writeCounters(writer, "cache_misses_total", "Cache lookups which didn't find the value", labelled("cache", cacheMisses));
+        writeCounters(writer, "segmentation_timeouts_total", "Paragraphs segmented by ICU only, because the SRX rules were too slow", labelled("rules", segmentationTimeouts));
+    }
+
+
+    /**
+     * Write a gauge in the Prometheus text format
+     * @param writer Writer
+     * @param name Name, without prefix
+     * @param help Description
+     * @param value Current value
+     * @throws IOException If the writer fails
+     */
+    public static void writeGauge(Writer writer, String name, String help, long value) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " gauge\n");
+        writer.write(PREFIX + name + " " + value + "\n");
+    }
+
+
+    private static void writeCounters(Writer writer, String name, String help, Map<String, LongAdder> counters) throws IOException {
+        writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + name + " counter\n");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet())
+            writer.write(PREFIX + name + "{" + entry.getKey() + "} " + entry.getValue().sum() + "\n");
+    }
+
+
+    private static Map<String, LongAdder> labelled(String name, Map<String, LongAdder> counters) {
+        Map<String, LongAdder> labelled = new TreeMap<>();
+        counters.forEach((value, counter) -> labelled.put(labels(name, value), counter));
+        return labelled;
+    }
+
+
+    private static String formatLabel(Format format) {
+        return (format == null ? "unknown" : format.toString());
+    }
+
+
+    /**
+     * Format the labels, given as name-value pairs
+     */
+    private static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0)
+                labels.append(',');
+            labels.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int k = 0; k < value.length(); k++) {
+                char ch = value.charAt(k);
+                switch (ch) {
+                    case '\\': labels.append("\\\\"); break;
+                    case '"': labels.append("\\\""); break;
+                    case '\n': labels.append("\\n"); break;
+                    default: labels.append(ch);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+
+}
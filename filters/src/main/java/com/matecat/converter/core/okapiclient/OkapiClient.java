@@ -2,11 +2,12 @@ package com.matecat.converter.core.okapiclient;
 
 import com.ibm.icu.util.ULocale;
 import com.matecat.converter.core.Format;
-import com.matecat.converter.core.XliffProcessor;
+import com.matecat.converter.core.XliffHeader;
 import com.matecat.converter.core.encoding.Encoding;
 import com.matecat.converter.core.util.Config;
-import com.matecat.converter.okapi.steps.segmentation.AddIcuHintsStep;
-import com.matecat.converter.okapi.steps.segmentation.RemoveIcuHintsStep;
+import com.matecat.converter.core.util.KeyedPool;
+import com.matecat.converter.okapi.steps.segmentation.CachedSegmentationStep;
+import com.matecat.converter.okapi.steps.segmentation.IcuSrxSegmentationStep;
 import net.sf.okapi.common.LocaleId;
 import net.sf.okapi.common.MimeTypeMapper;
 import net.sf.okapi.common.Util;
@@ -15,6 +16,7 @@ import net.sf.okapi.common.filters.FilterConfigurationMapper;
 import net.sf.okapi.common.filters.IFilter;
 import net.sf.okapi.common.filters.IFilterConfigurationMapper;
 import net.sf.okapi.common.pipelinedriver.BatchItemContext;
+import net.sf.okapi.common.pipelinedriver.IBatchItemContext;
 import net.sf.okapi.common.pipelinedriver.IPipelineDriver;
 import net.sf.okapi.common.pipelinedriver.PipelineDriver;
 import net.sf.okapi.common.resource.RawDocument;
@@ -24,7 +26,6 @@ import net.sf.okapi.filters.table.TableFilter;
 import net.sf.okapi.steps.common.RawDocumentToFilterEventsStep;
 import net.sf.okapi.steps.rainbowkit.creation.ExtractionStep;
 import net.sf.okapi.steps.rainbowkit.postprocess.MergingStep;
-import net.sf.okapi.steps.segmentation.SegmentationStep;
 import net.sf.okapi.steps.whitespacecorrection.WhitespaceCorrectionStep;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -34,6 +35,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.matecat.converter.core.Format.SDLXLIFF;
 
@@ -96,50 +99,111 @@ public class OkapiClient {
 
     /* OKAPI PIPELINE / STEPS CREATION */
 
+    // Idle pipelines by kind of pipeline and segmentation; at most one per conversion thread
+    private static final KeyedPool<String, PipelineTemplate> PIPELINES = new KeyedPool<>("okapi_pipelines", Config.conversionThreads);
+    private static final String MERGE_PIPELINE = "merge";
+
+    // Filter configuration mappers by filter class; they are only read once created
+    private static final Map<Class<?>, IFilterConfigurationMapper> FILTER_CONFIGURATION_MAPPERS = new ConcurrentHashMap<>();
+
     /**
-     * Create pipeline driver
-     * @param root File's root
-     * @return Pipeline driver
+     * Pipeline whose steps are built once, and reused by the following conversions
+     *
+     * Only the filter, its configuration mapper, the folders and the batch item change between runs.
      */
-    private static IPipelineDriver createOkapiPipelineDriver(String root) {
+    private static class PipelineTemplate {
+
+        private final IPipelineDriver driver = new PipelineDriver();
+        private final RawDocumentToFilterEventsStep filterStep = new RawDocumentToFilterEventsStep();
+
+        private PipelineTemplate() {
+            driver.addStep(filterStep);
+        }
 
-        // Create the pipeline driver
-        IPipelineDriver driver = new PipelineDriver();
+        /**
+         * Run the pipeline on a single document
+         * @param root Root and output folder
+         * @param filter Filter to use, or null to create it from the document's configuration
+         * @param item Batch item
+         */
+        private void process(String root, IFilter filter, IBatchItemContext item) {
+            if (filter != null) {
+                filterStep.setFilter(filter);
+                driver.setFilterConfigurationMapper(getFilterConfigurationMapper(filter));
+            }
+            driver.clearItems();
+            driver.setRootDirectories(root, root);
+            driver.setOutputDirectory(root);
+            driver.addBatchItem(item);
+            driver.processBatch();
+        }
+    }
+
+    /**
+     * Create the extraction pipeline
+     * @param segmentationFile File of the segmentation rules, or null to not segment
+     * @param defaultRules True if they are the default rules, which break on the ICU hints
+     * @return Pipeline
+     */
+    private static PipelineTemplate createExtractionPipeline(File segmentationFile, boolean defaultRules) {
+        PipelineTemplate pipeline = new PipelineTemplate();
+        if (segmentationFile != null) {
+            createSegmentationStep(segmentationFile, defaultRules, pipeline.driver);
+        }
 
-        // Set output
-        driver.setRootDirectories(root, root);
-        driver.setOutputDirectory(root);
+        // Kit creation step
+        pipeline.driver.addStep(createExtractionStep());
+        return pipeline;
+    }
 
-        // Return the driver
-        return driver;
+    /**
+     * Create the merge pipeline
+     * @return Pipeline
+     */
+    private static PipelineTemplate createMergePipeline() {
+        PipelineTemplate pipeline = new PipelineTemplate();
+
+        // This step acts only when a non-space-delimited language is used
+        // as source or target. The translation from/to these languages may
+        // cause extra/missing spaces in the target document. See the
+        // step documentation (https://goo.gl/g2yQpJ) for more info.
+        // In regular language pairs the step does nothing.
+        pipeline.driver.addStep(new WhitespaceCorrectionStep());
+
+        // Add the t-kit merging step
+        pipeline.driver.addStep(createMergingStep());
+        return pipeline;
     }
 
     /**
      * Create the segmentation step
-     * @param sourceLanguage Source language
-     * @param segmentation the name of the custom segmentation file to use (if any), or <code>null</code> to fallback on default
+     * @param segmentationFile File of the segmentation rules
+     * @param defaultRules True if they are the default rules, which break on the ICU sentence boundaries
      * @param driver a reference to the current driver to be populated with the segmentation step
-     * 
+     *
      * @see Config.customSegmentationFolder
      */
-    private static void createSegmentationStep(Locale sourceLanguage, String segmentation, IPipelineDriver driver) {
-        SegmentationStep segmentationStep = new SegmentationStep();
-        net.sf.okapi.steps.segmentation.Parameters params = (net.sf.okapi.steps.segmentation.Parameters) segmentationStep.getParameters();
-        
-        String customSegmentationFilePath = getCustomSegmentationFilePath(segmentation);
-
-        if (customSegmentationFilePath != null) {
-            params.setSourceSrxPath(customSegmentationFilePath);
-            driver.addStep(segmentationStep);
+    private static void createSegmentationStep(File segmentationFile, boolean defaultRules, IPipelineDriver driver) {
+        if (!defaultRules) {
+            driver.addStep(new CachedSegmentationStep(segmentationFile));
         } else {
-            driver.addStep(new AddIcuHintsStep(sourceLanguage));
-            params.setSourceSrxPath(SRX_FILE.getPath());
-            driver.addStep(segmentationStep);
-            driver.addStep(new RemoveIcuHintsStep());
+            driver.addStep(new IcuSrxSegmentationStep(segmentationFile));
         }
     }
     
     
+    /**
+     * Get the file of the segmentation rules used for a segmentation name
+     * @param segmentation Name of the custom segmentation, or null to use the default rules
+     * @return Custom segmentation file, or the default SRX file
+     * @throws RuntimeException if the custom segmentation file does not exist or cannot be read
+     */
+    public static File getSegmentationFile(String segmentation) {
+        String customSegmentationFilePath = getCustomSegmentationFilePath(segmentation);
+        return (customSegmentationFilePath != null ? new File(customSegmentationFilePath) : SRX_FILE);
+    }
+
+
     /**
      * given a segmentation name, check if exists a corresponding file with custom segmentation rules and return its path 
      * @param segmentation
@@ -166,6 +230,11 @@ public class OkapiClient {
         // instantiate a file wrapper to make all the necessary checks
         File segmentationFile = new File(Config.customSegmentationFolder + segmentation + ".srx");
 
+        // Rules already parsed, and dropped by the folder watcher if the file changes: no need to check it again
+        if (SrxRulesCache.isCached(segmentationFile)) {
+            return segmentationFile.getPath();
+        }
+
         /* Check if the corresponding file exists
          *
          * IMPORTANT
@@ -234,6 +303,15 @@ public class OkapiClient {
         return mergingStep;
     }
 
+    /**
+     * Get the shared filter configuration mapper of a filter
+     * @param filter Filter being used
+     * @return Configuration mapper, created the first time the filter's class is used
+     */
+    private static IFilterConfigurationMapper getFilterConfigurationMapper(IFilter filter) {
+        return FILTER_CONFIGURATION_MAPPERS.computeIfAbsent(filter.getClass(), key -> createFilterConfigurationMapper(filter));
+    }
+
     /**
      * Create a filter configuration mapper
      * @param filter Filter being used
@@ -293,28 +371,20 @@ public class OkapiClient {
         // Output pack folder
         File packFolder = new File(file.getParentFile().getPath() + File.separator + OkapiPack.PACK_FILENAME);
 
-        // Create the pipeline driver
-        IPipelineDriver driver = createOkapiPipelineDriver(file.getParent());
-
-        // Filtering step
-        if (filter == null) filter = OkapiFilterFactory.getFilter(file);
-        driver.addStep(new RawDocumentToFilterEventsStep(filter));
-
-        // Set the filter configuration map to use with the driver
-        driver.setFilterConfigurationMapper(createFilterConfigurationMapper(filter));
-
         // Very often, PO files carry already some translated segments inside.
         // If we segment the sources, how can we obtain the corresponding segments
         // in the translated contents? We can't. The structure of PO files makes
         // already segmented, so it's better to not segment further.
         // XLIFFs instead are already segmented, and segmenting them further causes
         // strange outputs.
-        if (!Format.isBilingual(format) || segmentBilingual) {
-        	  createSegmentationStep(sourceLanguage, segmentation, driver);
-        }
+        final boolean segment = !Format.isBilingual(format) || segmentBilingual;
+        final String customSegmentationFilePath = (segment ? getCustomSegmentationFilePath(segmentation) : null);
+        final File segmentationFile = (!segment ? null : customSegmentationFilePath != null ? new File(customSegmentationFilePath) : SRX_FILE);
+        final String pipelineKey = "extraction:" + (!segment ? "none" : customSegmentationFilePath != null ? customSegmentationFilePath : "default");
 
-        // Kit creation step
-        driver.addStep(createExtractionStep());
+        // Filter, pooled unless a custom one is given
+        boolean pooledFilter = (filter == null);
+        if (pooledFilter) filter = OkapiFilterFactory.borrowFilter(file);
 
         // Add the input file to the driver
         // WARNING:
@@ -332,8 +402,12 @@ public class OkapiClient {
         // Create batch and run it
         // Warning: output encoding must be ALWAYS UTF-8
         BatchItemContext item = new BatchItemContext(rawDoc, outputFile.toURI(), StandardCharsets.UTF_8.toString());
-        driver.addBatchItem(item);
-        driver.processBatch();
+        PipelineTemplate pipeline = PIPELINES.borrow(pipelineKey, () -> createExtractionPipeline(segmentationFile, customSegmentationFilePath == null));
+        pipeline.process(file.getParent(), filter, item);
+
+        // The pipeline succeeded, so it and the filter can be reused; after a failure they're discarded
+        PIPELINES.release(pipelineKey, pipeline);
+        if (pooledFilter) OkapiFilterFactory.releaseFilter(file, filter);
 
         // Check that it has been created
         if (!packFolder.exists())
@@ -346,44 +420,32 @@ public class OkapiClient {
     /**
      * Generate the derived file from a Okapi's result pack
      * @param pack Okapi Results pack
+     * @param header Header of the XLIFF the pack was extracted from
      * @return Derived file
      */
-    public static File generateDerivedFile(OkapiPack pack) {
+    public static File generateDerivedFile(OkapiPack pack, XliffHeader header) {
 
         try {
 
-            // Create pipeline
             String root = pack.getPackFolder().getParent();
-            IPipelineDriver driver = createOkapiPipelineDriver(root);
-            driver.setFilterConfigurationMapper(
-                    createFilterConfigurationMapper(
-                            OkapiFilterFactory.getFilter(pack.getOriginalFile())));
-
-            // Add the extraction step
-            driver.addStep(new RawDocumentToFilterEventsStep());
-
-            XliffProcessor processor = new XliffProcessor(pack.getXlf());
-            LocaleId sourceLanguage = new LocaleId(processor.getSourceLanguage());
-            LocaleId targetLanguage = new LocaleId(processor.getTargetLanguage());
-
-            // This step acts only when a non-space-delimited language is used
-            // as source or target. The translation from/to these languages may
-            // cause extra/missing spaces in the target document. See the
-            // step documentation (https://goo.gl/g2yQpJ) for more info.
-            // In regular language pairs the step does nothing.
-            driver.addStep(new WhitespaceCorrectionStep());
-
-            // Add the t-kit merging step
-            driver.addStep(createMergingStep());
+            LocaleId sourceLanguage = new LocaleId(header.getSourceLanguage());
+            LocaleId targetLanguage = new LocaleId(header.getTargetLanguage());
 
             // Add the input file (manifest file)
             RawDocument rawDoc = new RawDocument(pack.getManifest().toURI(),
                     "UTF-8", sourceLanguage, targetLanguage,
                     "okf_rainbowkit-noprompt");
-            driver.addBatchItem(rawDoc);
+
+            // The filter is only needed to know its configurations
+            IFilter filter = OkapiFilterFactory.borrowFilter(pack.getOriginalFile());
+            IFilterConfigurationMapper fcMapper = getFilterConfigurationMapper(filter);
+            OkapiFilterFactory.releaseFilter(pack.getOriginalFile(), filter);
 
             // Run the pipeline
-            driver.processBatch();
+            PipelineTemplate pipeline = PIPELINES.borrow(MERGE_PIPELINE, OkapiClient::createMergePipeline);
+            pipeline.driver.setFilterConfigurationMapper(fcMapper);
+            pipeline.process(root, null, new BatchItemContext(rawDoc, null, null));
+            PIPELINES.release(MERGE_PIPELINE, pipeline);
 
             // Return the derived file
             return pack.getDerivedFile();
@@ -1,11 +1,14 @@
 package com.matecat.converter.core.okapiclient;
 
 import com.matecat.converter.core.Format;
+import com.matecat.converter.core.util.Config;
+import com.matecat.converter.core.util.KeyedPool;
 import net.sf.okapi.common.MimeTypeMapper;
 import net.sf.okapi.common.filters.FilterConfiguration;
 import net.sf.okapi.common.filters.FilterConfigurationMapper;
 import net.sf.okapi.common.filters.IFilter;
 import net.sf.okapi.common.filters.IFilterConfigurationMapper;
+import net.sf.okapi.filters.abstractmarkup.config.TaggedFilterConfiguration;
 import net.sf.okapi.filters.archive.ArchiveFilter;
 import net.sf.okapi.filters.dtd.DTDFilter;
 import net.sf.okapi.filters.html.HtmlFilter;
@@ -33,24 +36,70 @@ import net.sf.okapi.filters.xini.XINIFilter;
 import net.sf.okapi.filters.xliff.XLIFFFilter;
 import net.sf.okapi.filters.xmlstream.XmlStreamFilter;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Filter factory
+ *
+ * Filters are expensive to build, so they are pooled by format: a filter is borrowed for a pipeline and released
+ * once it has succeeded. Filters of failed pipelines are never reused, since their state is unknown.
  */
     public class OkapiFilterFactory {
 
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(OkapiFilterFactory.class);
+
+    // Idle filters by format; at most one per conversion thread
+    private static final KeyedPool<Format, IFilter> POOL = new KeyedPool<>("okapi_filters", Config.conversionThreads);
+
     // Path of the configurations
     public static final String OKAPI_CUSTOM_CONFIGS_PATH = "/okapi/configurations/";
 
     public static final String XML_CONFIG_FILENAME = "okf_xmlstream-custom.fprm";
     public static final String HTML_CONFIG_FILENAME = "okf_html-custom.fprm";
     public static final String DITA_CONFIG_FILENAME = "okf_xmlstream@dita-custom.fprm";
+    private static final String STRINGS_CONFIG_FILENAME = "okf_regex@macstrings.fprm";
+    private static final String SRT_CONFIG_FILENAME = "okf_regex@srt.fprm";
+    private static final String RESX_CONFIG_FILENAME = "okf_xml@resx.fprm";
+    private static final String WIX_CONFIG_FILENAME = "okf_xml@wix.fprm";
+
+    // Custom configurations, loaded and validated once when the class is loaded.
+    // The parsed markup configurations are shared by all the filters, and never modified.
+    private static final TaggedFilterConfiguration HTML_CONFIG = new TaggedFilterConfiguration(loadConfiguration(HTML_CONFIG_FILENAME));
+    private static final TaggedFilterConfiguration XML_CONFIG = new TaggedFilterConfiguration(loadConfiguration(XML_CONFIG_FILENAME));
+    private static final TaggedFilterConfiguration DITA_CONFIG = new TaggedFilterConfiguration(loadConfiguration(DITA_CONFIG_FILENAME));
+    // The other parameters aren't safe to share: every filter parses its own copy from memory
+    private static final String STRINGS_CONFIG = validate(loadConfiguration(STRINGS_CONFIG_FILENAME), new net.sf.okapi.filters.regex.Parameters());
+    private static final String SRT_CONFIG = validate(loadConfiguration(SRT_CONFIG_FILENAME), new net.sf.okapi.filters.regex.Parameters());
+    private static final String RESX_CONFIG = validate(loadConfiguration(RESX_CONFIG_FILENAME), new net.sf.okapi.filters.its.Parameters());
+    private static final String WIX_CONFIG = validate(loadConfiguration(WIX_CONFIG_FILENAME), new net.sf.okapi.filters.its.Parameters());
+
+    // Configurations of the XML subfilters
+    private static final IFilterConfigurationMapper XML_SUBFILTERS_CONFIG_MAPPER;
+    static {
+        XML_SUBFILTERS_CONFIG_MAPPER = new FilterConfigurationMapper();
+        // This configuration must be copied in the FilterConfigurationMapper
+        // used in the merge phase, because the manifest doesn't carry the
+        // subfilter configuration. See OkapiClient.createFilterConfigurationMapper
+        XML_SUBFILTERS_CONFIG_MAPPER.addConfiguration(new FilterConfiguration(
+                "okf_html-custom",
+                MimeTypeMapper.HTML_MIME_TYPE,
+                HtmlFilter.class.getName(),
+                "HTML",
+                "HTML customized for MateCat Filters",
+                OKAPI_CUSTOM_CONFIGS_PATH + HTML_CONFIG_FILENAME,
+                ".htm;.html;"
+        ));
+    }
 
     // Formats supported by the filter factory
     protected static final Set<Format> SUPPORTED_FORMATS;
@@ -113,6 +162,52 @@ import java.util.Set;
     }
 
 
+    // Formats whose filters use the custom configurations
+    private static final Format[] CUSTOM_CONFIG_FORMATS = {
+            Format.HTML, Format.XML, Format.DITA, Format.STRINGS, Format.SRT, Format.RESX, Format.WIX
+    };
+
+
+    /**
+     * Build a filter with every custom configuration, and put it in the pool
+     *
+     * Called at startup, so an invalid configuration stops the server instead of failing the conversions, and the
+     * first conversions of these formats find their filter ready.
+     */
+    public static void prewarm() {
+        for (Format format : CUSTOM_CONFIG_FORMATS)
+            POOL.release(format, getFilter(format));
+    }
+
+
+    /**
+     * Read a custom configuration from the resources
+     * @param filename Configuration filename
+     * @return Configuration
+     */
+    private static String loadConfiguration(String filename) {
+        try (InputStream input = OkapiFilterFactory.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + filename)) {
+            if (input == null)
+                throw new RuntimeException("Missing custom configuration " + filename);
+            return IOUtils.toString(input, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Custom configuration " + filename + " could not be loaded", e);
+        }
+    }
+
+
+    /**
+     * Check that a configuration can be parsed
+     * @param config Configuration
+     * @param params Parameters parsing it
+     * @return Configuration
+     */
+    private static String validate(String config, net.sf.okapi.common.IParameters params) {
+        params.fromString(config);
+        return config;
+    }
+
+
     /**
      * Check if Okapi supports a format
      * @param format Format
@@ -124,11 +219,45 @@ import java.util.Set;
 
 
     /**
-     * Get the corresponding filter for a given format
+     * Borrow a filter for a file from the pool, creating it if none is available
+     * @param file File to filter
+     * @return Filter, to be released when the pipeline succeeds
+     */
+    protected static IFilter borrowFilter(File file) {
+        return POOL.borrow(Format.getFormat(file), () -> getFilter(file));
+    }
+
+
+    /**
+     * Give back a borrowed filter, after its pipeline has succeeded
+     * @param file File which has been filtered
+     * @param filter Filter
+     */
+    protected static void releaseFilter(File file, IFilter filter) {
+        try {
+            // Already closed by the pipeline, but make sure the document is released
+            filter.close();
+        } catch (Exception e) {
+            LOGGER.warn("Discarding a filter which couldn't be closed", e);
+            return;
+        }
+        POOL.release(Format.getFormat(file), filter);
+    }
+
+
+    /**
+     * Get the corresponding filter for a given file
      * @return
      */
     protected static IFilter getFilter(File file) {
-        final Format format = Format.getFormat(file);
+        return getFilter(Format.getFormat(file));
+    }
+
+
+    /**
+     * Get the corresponding filter for a given format
+     */
+    private static IFilter getFilter(Format format) {
         switch (format) {
             case DOCM:
             case DOCX:
@@ -225,13 +354,7 @@ import java.util.Set;
 
     private static HtmlFilter getHtmlFilter() {
         HtmlFilter filter = new HtmlFilter();
-        try {
-            net.sf.okapi.filters.html.Parameters params = (net.sf.okapi.filters.html.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + HTML_CONFIG_FILENAME), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("Dita custom configuration could not be loaded");
-        }
+        ((net.sf.okapi.filters.html.Parameters) filter.getParameters()).setTaggedConfig(HTML_CONFIG);
         return filter;
     }
 
@@ -373,87 +496,38 @@ import java.util.Set;
 
     private static RegexFilter getStringsFilter() {
         RegexFilter filter = new RegexFilter();
-        try {
-            net.sf.okapi.filters.regex.Parameters params = (net.sf.okapi.filters.regex.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + "okf_regex@macstrings.fprm"), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("Strings custom configuration could not be loaded");
-        }
+        filter.getParameters().fromString(STRINGS_CONFIG);
         return filter;
     }
 
     private static RegexFilter getSRTFilter() {
         RegexFilter filter = new RegexFilter();
-        try {
-            net.sf.okapi.filters.regex.Parameters params = (net.sf.okapi.filters.regex.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + "okf_regex@srt.fprm"), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("Strings custom configuration could not be loaded");
-        }
+        filter.getParameters().fromString(SRT_CONFIG);
         return filter;
     }
 
     private static XMLFilter getRESXFilter() {
         XMLFilter filter = new XMLFilter();
-        try {
-            net.sf.okapi.filters.its.Parameters params = (net.sf.okapi.filters.its.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + "okf_xml@resx.fprm"), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("XML custom configuration could not be loaded");
-        }
+        filter.getParameters().fromString(RESX_CONFIG);
         return filter;
     }
 
     private static XMLFilter getWixFilter() {
         XMLFilter filter = new XMLFilter();
-        try {
-            net.sf.okapi.filters.its.Parameters params = (net.sf.okapi.filters.its.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + "okf_xml@wix.fprm"), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("XML custom configuration could not be loaded");
-        }
+        filter.getParameters().fromString(WIX_CONFIG);
         return filter;
     }
 
     private static XmlStreamFilter getXmlFilter() {
         XmlStreamFilter filter = new XmlStreamFilter();
-        try {
-            net.sf.okapi.filters.xmlstream.Parameters params = (net.sf.okapi.filters.xmlstream.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + XML_CONFIG_FILENAME), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("XML custom configuration could not be loaded");
-        }
-        IFilterConfigurationMapper cm = new FilterConfigurationMapper();
-        // This configuration must be copied in the FilterConfigurationMapper
-        // used in the merge phase, because the manifest doesn't carry the
-        // subfilter configuration. See OkapiClient.createFilterConfigurationMapper
-        cm.addConfiguration(new FilterConfiguration(
-                "okf_html-custom",
-                MimeTypeMapper.HTML_MIME_TYPE,
-                HtmlFilter.class.getName(),
-                "HTML",
-                "HTML customized for MateCat Filters",
-                OKAPI_CUSTOM_CONFIGS_PATH + HTML_CONFIG_FILENAME,
-                ".htm;.html;"
-        ));
-        filter.setFilterConfigurationMapper(cm);
+        ((net.sf.okapi.filters.xmlstream.Parameters) filter.getParameters()).setTaggedConfig(XML_CONFIG);
+        filter.setFilterConfigurationMapper(XML_SUBFILTERS_CONFIG_MAPPER);
         return filter;
     }
 
     private static XmlStreamFilter getDitaFilter() {
         XmlStreamFilter filter = new XmlStreamFilter();
-        try {
-            net.sf.okapi.filters.xmlstream.Parameters params = (net.sf.okapi.filters.xmlstream.Parameters) filter.getParameters();
-            String config = IOUtils.toString(System.class.getResourceAsStream(OKAPI_CUSTOM_CONFIGS_PATH + DITA_CONFIG_FILENAME), "UTF-8");
-            params.fromString(config);
-        } catch (IOException e) {
-            System.err.println("Dita custom configuration could not be loaded");
-        }
+        ((net.sf.okapi.filters.xmlstream.Parameters) filter.getParameters()).setTaggedConfig(DITA_CONFIG);
         return filter;
     }
 
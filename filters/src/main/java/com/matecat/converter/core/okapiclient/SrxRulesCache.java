@@ -0,0 +1,249 @@
+package com.matecat.converter.core.okapiclient;
+
+import com.matecat.converter.core.cache.CacheKey;
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.util.Config;
+import com.matecat.converter.okapi.steps.segmentation.InterruptibleSrxSegmenter;
+import net.sf.okapi.common.ISegmenter;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.lib.segmentation.LanguageMap;
+import net.sf.okapi.lib.segmentation.Rule;
+import net.sf.okapi.lib.segmentation.SRXDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of the parsed and compiled SRX rules
+ *
+ * Rules files are parsed once and compiled once per language. The compiled segmenters keep the state of the last
+ * segmentation, so they are lent to a single pipeline at a time and returned to the cache when it ends.
+ *
+ * The custom segmentation folder is watched: when a rules file changes or is deleted, its rules are dropped and read
+ * again at the next use. While the folder is watched, cached files aren't checked on disk at every request.
+ */
+public class SrxRulesCache {
+
+    /**
+     * Private constructor (static class)
+     */
+    private SrxRulesCache() {}
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(SrxRulesCache.class);
+
+    private static final String CACHE_NAME = "srx";
+
+    private static final Map<String, Rules> rules = new ConcurrentHashMap<>();
+    private static volatile boolean watching = false;
+
+
+    /**
+     * Rules of a SRX file, and their compiled segmenters by language
+     */
+    public static class Rules {
+
+        private final SRXDocument document;
+        private final String name;
+        private final String hash;
+        private final Map<LocaleId, Queue<ISegmenter>> segmenters = new ConcurrentHashMap<>();
+        private final Map<LocaleId, InterruptibleSrxSegmenter> interruptibleSegmenters = new ConcurrentHashMap<>();
+
+        private Rules(File file) {
+            this.name = file.getName();
+            byte[] content;
+            try {
+                content = Files.readAllBytes(file.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read the segmentation rules in " + file, e);
+            }
+            this.document = new SRXDocument();
+            document.loadRules(new ByteArrayInputStream(content));
+            if (document.hasWarning())
+                LOGGER.warn(document.getWarning());
+            document.setTreatIsolatedCodesAsWhitespace(false);
+            this.hash = new CacheKey().add(content).build();
+        }
+
+        /**
+         * Get the name of the rules file
+         * @return File name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the hash of the content of the rules file
+         * @return Hexadecimal SHA-256
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Borrow a segmenter for a language, compiling it if none is available
+         * @param language Language
+         * @return Segmenter, to be released when done
+         */
+        public ISegmenter borrow(LocaleId language) {
+            ISegmenter segmenter = segmenters.computeIfAbsent(language, key -> new ConcurrentLinkedQueue<>()).poll();
+            Metrics.countCacheLookup(CACHE_NAME, segmenter != null);
+            if (segmenter != null)
+                return segmenter;
+            synchronized (document) {
+                return document.compileLanguageRules(language, null);
+            }
+        }
+
+        /**
+         * Get a segmenter for a language which can be stopped while it runs. It is shared, and never released.
+         * @param language Language
+         * @return Segmenter, or null if the rules use the ICU4J break rules, which it doesn't support
+         */
+        public InterruptibleSrxSegmenter getInterruptibleSegmenter(LocaleId language) {
+            if (document.useIcu4JBreakRules())
+                return null;
+            return interruptibleSegmenters.computeIfAbsent(language, this::compileInterruptibleSegmenter);
+        }
+
+        private InterruptibleSrxSegmenter compileInterruptibleSegmenter(LocaleId language) {
+            // Same rules, in the same order, as SRXDocument.compileLanguageRules
+            List<Pattern> patterns = new ArrayList<>();
+            List<Boolean> breaks = new ArrayList<>();
+            synchronized (document) {
+                for (LanguageMap languageMap : document.getAllLanguagesMaps()) {
+                    if (!Pattern.matches(languageMap.getPattern(), language.toString())) continue;
+                    for (Rule rule : document.getLanguageRules(languageMap.getRuleName())) {
+                        if (!rule.isActive()) continue;
+                        String regex = document.generateRuleRegex(rule).replace(SRXDocument.ANYCODE, SRXDocument.INLINECODE_PATTERN);
+                        patterns.add(Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS));
+                        breaks.add(rule.isBreak());
+                    }
+                    if (!document.cascade()) break;
+                }
+                boolean[] isBreak = new boolean[breaks.size()];
+                for (int i = 0; i < isBreak.length; i++)
+                    isBreak[i] = breaks.get(i);
+                return new InterruptibleSrxSegmenter(document, patterns, isBreak);
+            }
+        }
+
+        /**
+         * Give back a borrowed segmenter
+         * @param language Language of the segmenter
+         * @param segmenter Segmenter
+         */
+        public void release(LocaleId language, ISegmenter segmenter) {
+            segmenters.computeIfAbsent(language, key -> new ConcurrentLinkedQueue<>()).add(segmenter);
+        }
+
+    }
+
+
+    /**
+     * Get the rules of a SRX file, parsing it if it's not cached
+     * @param file SRX file
+     * @return Rules
+     */
+    public static Rules get(File file) {
+        return rules.computeIfAbsent(key(file), path -> new Rules(file));
+    }
+
+
+    /**
+     * Check if a SRX file is known to exist, without reading the disk
+     * @param file SRX file
+     * @return True if its rules are cached and its folder is watched, so they would have been dropped if deleted
+     */
+    public static boolean isCached(File file) {
+        return watching && rules.containsKey(key(file));
+    }
+
+
+    /**
+     * Parse the default rules and the custom ones, and start watching the custom segmentation folder
+     */
+    public static synchronized void prewarm() {
+        get(OkapiClient.SRX_FILE);
+        if (Config.customSegmentationFolder.isEmpty() || watching)
+            return;
+
+        File folder = new File(Config.customSegmentationFolder);
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".srx"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    get(file);
+                } catch (Exception e) {
+                    LOGGER.error("Invalid segmentation rules in {}", file, e);
+                }
+            }
+        }
+
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            folder.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            Thread watcher = new Thread(() -> watch(folder.toPath(), watchService), "srx-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            watching = true;
+        } catch (IOException e) {
+            LOGGER.error("Cannot watch the custom segmentation folder; changes to its rules won't be noticed", e);
+        }
+        LOGGER.info("Segmentation rules ready: {} files", rules.size());
+    }
+
+
+    /**
+     * Drop the rules of the files changed in the watched folder
+     */
+    private static void watch(Path folder, WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rules.keySet().removeIf(path -> !path.equals(key(OkapiClient.SRX_FILE)));
+                        continue;
+                    }
+                    File file = folder.resolve((Path) event.context()).toFile();
+                    if (rules.remove(key(file)) != null)
+                        LOGGER.info("Segmentation rules changed: {}", file);
+                }
+                if (!watchKey.reset()) {
+                    LOGGER.warn("The custom segmentation folder is not watched anymore");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+        watching = false;
+    }
+
+
+    private static String key(File file) {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+}
@@ -66,9 +66,11 @@ public class Project {
      * Close the project
      *
      * This will remove all the inner references to the file, and remove the folder depending on the configuration
-     * One this method is executed, it's not possible to use the project again.
+     * One this method is executed, it's not possible to use the project again; closing it again has no effect.
      */
-    public void close(boolean success) {
+    public synchronized void close(boolean success) {
+        if (folder == null)
+            return;
         if (!success && !Config.errorsFolder.isEmpty()) {
             final Date now = Calendar.getInstance().getTime();
             final String errorFolderPath = Config.errorsFolder
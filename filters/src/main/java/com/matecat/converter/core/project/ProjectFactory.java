@@ -52,4 +52,16 @@ public class ProjectFactory {
         }
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Open again a project created before, for instance before restarting the server
+     * @param file File of the project, inside the project's own folder
+     * @return Project containing the file
+     */
+    public static Project openProject(File file) {
+        if (!file.isFile())
+            throw new ProjectCreationException(String.format("The file '%s' does not exist anymore", file.getPath()));
+        return new Project(file);
+    }
+
+}
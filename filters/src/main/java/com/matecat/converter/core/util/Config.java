@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.*;
 
+import com.matecat.converter.core.Format;
 import com.matecat.filters.basefilters.DefaultFilter;
 import com.matecat.filters.basefilters.IFilter;
 import org.slf4j.Logger;
@@ -24,6 +25,7 @@ public class Config {
     public static final String cacheFolder;
     public static final String errorsFolder;
     public static final boolean deleteOnClose;
+    public static final boolean compressEmbeddedFiles;
     public static final boolean winConvEnabled;
     public static final String winConvConsulAddress;
     public static final String winConvConsulService;
@@ -31,6 +33,21 @@ public class Config {
     public static final Integer winConvPort;
     public static final List<Class> customFilters;
     public static final String customSegmentationFolder;
+    public static final int conversionThreads;
+    public static final int conversionQueueSize;
+    public static final Map<Format, Integer> conversionFormatLimits;
+    public static final int conversionRetryAfter;
+    public static final int conversionTimeout;
+    public static final int jobQueueSize;
+    public static final int jobExpiration;
+    public static final int drainTimeout;
+    public static final String adminToken;
+    public static final long minFreeSpace;
+    public static final long resultCacheSize;
+    public static final long winConvCacheSize;
+    public static final List<String> prewarmLanguages;
+    public static final int segmentationCacheSize;
+    public static final int segmentationBudget;
 
     public static final List<InetSocketAddress> winConvs = new ArrayList<>();
 
@@ -61,6 +78,7 @@ public class Config {
             }
 
             deleteOnClose = Boolean.parseBoolean(props.getProperty("delete-on-close"));
+            compressEmbeddedFiles = Boolean.parseBoolean(props.getProperty("compress-embedded-files"));
 
             winConvEnabled = Boolean.parseBoolean(props.getProperty("win-conv-enabled"));
 
@@ -99,6 +117,57 @@ public class Config {
             	  LOGGER.warn("custom-segmentation-folder param empty or invalid: custom segmentation disabled");
             }
 
+
+            // Conversions admission control
+            conversionThreads = parseInt(props, "conversion-threads", Runtime.getRuntime().availableProcessors());
+            if (conversionThreads <= 0) {
+                throw new RuntimeException("conversion-threads must be greater than zero");
+            }
+            conversionQueueSize = parseInt(props, "conversion-queue-size", 50);
+            conversionRetryAfter = parseInt(props, "conversion-retry-after", 10);
+            conversionTimeout = parseInt(props, "conversion-timeout", 20 * 60);
+
+            String limitsString = props.getProperty("conversion-format-limits");
+            Map<Format, Integer> limitsMap = new EnumMap<>(Format.class);
+            if (limitsString != null && !limitsString.trim().isEmpty()) {
+                for (String limit : limitsString.split(",")) {
+                    String[] parts = limit.split(":");
+                    if (parts.length != 2) {
+                        throw new RuntimeException("Invalid conversion-format-limits entry: " + limit.trim() + " (expected format:limit)");
+                    }
+                    limitsMap.put(Format.parse(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                }
+            }
+            conversionFormatLimits = Collections.unmodifiableMap(limitsMap);
+
+
+            // Asynchronous jobs
+            jobQueueSize = parseInt(props, "job-queue-size", 1000);
+            jobExpiration = parseInt(props, "job-expiration", 24 * 60 * 60);
+
+            // Shutdown
+            drainTimeout = parseInt(props, "drain-timeout", 300);
+            adminToken = props.getProperty("admin-token", "").trim();
+
+            // Readiness
+            minFreeSpace = parseInt(props, "min-free-space", 512) * 1024L * 1024L;
+
+            // Caches
+            resultCacheSize = parseInt(props, "result-cache-size", 1024) * 1024L * 1024L;
+            winConvCacheSize = parseInt(props, "winconv-cache-size", 1024) * 1024L * 1024L;
+
+            // Segmentation
+            String languagesString = props.getProperty("prewarm-languages", "en-US,it-IT,fr-FR,de-DE,es-ES,pt-BR,nl-NL,ru-RU,ja-JP,zh-CN");
+            List<String> languagesList = new ArrayList<>();
+            for (String language : languagesString.split(",")) {
+                if (!language.trim().isEmpty()) {
+                    languagesList.add(language.trim());
+                }
+            }
+            prewarmLanguages = Collections.unmodifiableList(languagesList);
+            segmentationCacheSize = parseInt(props, "segmentation-cache-size", 100000);
+            segmentationBudget = parseInt(props, "segmentation-budget", 1000);
+
         }
         catch (Exception e) {
             throw new RuntimeException("Exception while loading config.properties.", e);
@@ -106,6 +175,23 @@ public class Config {
     }
 
     
+    /**
+     * Parse an integer param, falling back on a default value when the param is missing or empty
+     *
+     * @param props Loaded properties
+     * @param name Name of the param
+     * @param defaultValue Value to use if the param is not set
+     * @return the parsed value
+     */
+    static int parseInt(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+
     /**
      * Check the validity of an user provided folder.
      * 
@@ -0,0 +1,164 @@
+package com.matecat.converter.core.util;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * UTF-8 writer of StAX events
+ *
+ * Unlike the StAX writers, which may write them as they are, it always writes as character references the carriage
+ * returns in the text and the newlines, carriage returns and tabs in the attributes. A parser would otherwise turn
+ * them into newlines and spaces, so the copy of a document would not be read like the original.
+ */
+public class EscapingXmlWriter implements Flushable {
+
+    private final Writer writer;
+
+    // A start tag waiting to be closed, as an empty element if the next event is its end
+    private boolean startTagOpen = false;
+
+
+    /**
+     * Constructor
+     * @param outputStream Output, written in UTF-8
+     */
+    public EscapingXmlWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Write an event
+     * @param event Event
+     */
+    public void add(XMLEvent event) throws IOException {
+        if (startTagOpen) {
+            startTagOpen = false;
+            if (event.isEndElement()) {
+                writer.write("/>");
+                return;
+            }
+            writer.write('>');
+        }
+
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_DOCUMENT:
+                StartDocument startDocument = (StartDocument) event;
+                writer.write("<?xml version=\"" + startDocument.getVersion() + "\" encoding=\"UTF-8\"");
+                if (startDocument.standaloneSet())
+                    writer.write(" standalone=\"" + (startDocument.isStandalone() ? "yes" : "no") + "\"");
+                writer.write("?>");
+                break;
+            case XMLStreamConstants.START_ELEMENT:
+                writeStartTag(event.asStartElement());
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.write("</" + getName(event.asEndElement().getName()) + ">");
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                writeCharacters(event.asCharacters());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.write("<!--" + ((Comment) event).getText() + "-->");
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                ProcessingInstruction instruction = (ProcessingInstruction) event;
+                writer.write("<?" + instruction.getTarget());
+                if (instruction.getData() != null && !instruction.getData().isEmpty())
+                    writer.write(" " + instruction.getData());
+                writer.write("?>");
+                break;
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                writer.write("&" + ((EntityReference) event).getName() + ";");
+                break;
+            case XMLStreamConstants.DTD:
+                writer.write(((DTD) event).getDocumentTypeDeclaration());
+                break;
+            default:
+                // End of document, and declarations reported only inside the DTD
+                break;
+        }
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        if (startTagOpen) {
+            startTagOpen = false;
+            writer.write('>');
+        }
+        writer.flush();
+    }
+
+
+    private void writeStartTag(StartElement element) throws IOException {
+        writer.write("<" + getName(element.getName()));
+        Iterator<?> namespaces = element.getNamespaces();
+        while (namespaces.hasNext()) {
+            Namespace namespace = (Namespace) namespaces.next();
+            writer.write(namespace.isDefaultNamespaceDeclaration() ? " xmlns" : " xmlns:" + namespace.getPrefix());
+            writeAttributeValue(namespace.getNamespaceURI());
+        }
+        Iterator<?> attributes = element.getAttributes();
+        while (attributes.hasNext()) {
+            Attribute attribute = (Attribute) attributes.next();
+            writer.write(" " + getName(attribute.getName()));
+            writeAttributeValue(attribute.getValue());
+        }
+        startTagOpen = true;
+    }
+
+
+    private void writeAttributeValue(String value) throws IOException {
+        writer.write("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': writer.write("&amp;"); break;
+                case '<': writer.write("&lt;"); break;
+                case '"': writer.write("&quot;"); break;
+                case '\n': writer.write("&#10;"); break;
+                case '\r': writer.write("&#13;"); break;
+                case '\t': writer.write("&#9;"); break;
+                default: writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+
+    private void writeCharacters(Characters characters) throws IOException {
+        String text = characters.getData();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': writer.write("&amp;"); break;
+                case '<': writer.write("&lt;"); break;
+                case '>': writer.write("&gt;"); break;
+                case '\r': writer.write("&#13;"); break;
+                default: writer.write(c);
+            }
+        }
+    }
+
+
+    private static String getName(QName name) {
+        return (name.getPrefix() == null || name.getPrefix().isEmpty() ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart());
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.matecat.converter.core.util;
+
+import com.matecat.converter.core.metrics.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable objects, by key
+ *
+ * Objects are borrowed for a single use, and released only if that use succeeded: an object whose use failed is
+ * simply not released, so objects in an unknown state are never reused. When a key has no idle object a new one is
+ * created, and when its idle objects reach the limit the released ones are dropped.
+ */
+public class KeyedPool<K, V> {
+
+    private final String name;
+    private final int maxIdle;
+    private final Map<K, BlockingQueue<V>> idle = new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructor
+     * @param name Name of the pool, reported in the metrics
+     * @param maxIdle Maximum idle objects kept for every key
+     */
+    public KeyedPool(String name, int maxIdle) {
+        this.name = name;
+        this.maxIdle = Math.max(1, maxIdle);
+    }
+
+
+    /**
+     * Borrow an idle object, or create a new one if there isn't any
+     * @param key Key
+     * @param factory Creation of a new object for the key
+     * @return Object, to be released after a successful use
+     */
+    public V borrow(K key, Supplier<V> factory) {
+        V value = getIdle(key).poll();
+        Metrics.countCacheLookup(name, value != null);
+        return (value != null ? value : factory.get());
+    }
+
+
+    /**
+     * Give back a borrowed object, after a successful use
+     * @param key Key it was borrowed with
+     * @param value Object
+     */
+    public void release(K key, V value) {
+        getIdle(key).offer(value);
+    }
+
+
+    private BlockingQueue<V> getIdle(K key) {
+        return idle.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(maxIdle));
+    }
+
+}
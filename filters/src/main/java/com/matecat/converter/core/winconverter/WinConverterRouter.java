@@ -1,6 +1,8 @@
 package com.matecat.converter.core.winconverter;
 
 import com.matecat.converter.core.Format;
+import com.matecat.converter.core.cache.CacheKey;
+import com.matecat.converter.core.cache.DiskCache;
 import com.matecat.converter.core.util.Config;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.fluent.Request;
@@ -31,11 +33,38 @@ public class WinConverterRouter {
     private static class OCRDecorator<T> {
         final T obj;
         final boolean supportsOcr;
+        // Health reported by Consul, always true for the converter of the config
+        volatile boolean healthy = true;
+        // Time of the last conversion failed with an IOException, 0 if the last one succeeded
+        volatile long lastFailure = 0;
 
         OCRDecorator(T obj, boolean supportsOcr) {
             this.obj = obj;
             this.supportsOcr = supportsOcr;
         }
+
+        /**
+         * Healthy if Consul says so and no conversion failed recently, so a converter is counted again once it
+         * had the time to recover even when nothing refreshes its health
+         */
+        boolean isHealthy() {
+            return healthy && System.currentTimeMillis() - lastFailure >= FAILURE_RETRY_INTERVAL;
+        }
+    }
+
+    /**
+     * Snapshot of the converters pool
+     */
+    public static class PoolStatus {
+        public final int registered;
+        public final int healthy;
+        public final int ocr;
+
+        PoolStatus(int registered, int healthy, int ocr) {
+            this.registered = registered;
+            this.healthy = healthy;
+            this.ocr = ocr;
+        }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WinConverterRouter.class);
@@ -45,12 +74,19 @@ public class WinConverterRouter {
     // This prevents sending too much queries to Consul
     private static final int CONSUL_REFRESH_INTERVAL = 1000; // In milliseconds
     private static long lastConsulUpdate = 0;
+    // A converter whose conversion failed is counted as unhealthy for this time
+    private static final int FAILURE_RETRY_INTERVAL = 30000; // In milliseconds
 
     // The list of converters to use, refreshed regularly
-    private static List<OCRDecorator<WinConverterClient>> converters = Collections.unmodifiableList(new ArrayList<>());
+    private static volatile List<OCRDecorator<WinConverterClient>> converters = Collections.unmodifiableList(new ArrayList<>());
     // Stores the already created WinConverter instances so we can reuse them.
     private static Map<InetSocketAddress, OCRDecorator<WinConverterClient>> convertersByAddress = new HashMap<>();
 
+    // Cache of the converted files, null if disabled
+    private static final DiskCache CACHE = (Config.winConvCacheSize > 0 ?
+            new DiskCache("winconverter", new File(Config.cacheFolder, "winconverter"), Config.winConvCacheSize) :
+            null);
+
     // Stores the default output format for each supported source format
     private static final Map<Format, Format> FORMATS_MAPPINGS;
 
@@ -78,7 +114,7 @@ public class WinConverterRouter {
         }
     }
 
-    private static void updateConvertersIfNeeded() {
+    private static synchronized void updateConvertersIfNeeded() {
         // If not using Consul or the list was updated recently return
         if (!USE_CONSUL || lastConsulUpdate + CONSUL_REFRESH_INTERVAL > System.currentTimeMillis()) return;
 
@@ -111,6 +147,7 @@ public class WinConverterRouter {
                     // If not found, create a new instance
                     decoratedConverter = new OCRDecorator<>(new WinConverterClient(address), decoratedAddress.supportsOcr);
                 }
+                decoratedConverter.healthy = decoratedAddress.healthy;
 
                 // Register this instance in the new map and list
                 newConvertersMap.put(address, decoratedConverter);
@@ -177,10 +214,12 @@ public class WinConverterRouter {
                 }
             }
 
+            OCRDecorator<InetSocketAddress> decoratedAddress = new OCRDecorator<>(new InetSocketAddress(host, port), ocr);
+            decoratedAddress.healthy = healthy;
             if (healthy) {
-                healthyConverters.add(new OCRDecorator<>(new InetSocketAddress(host, port), ocr));
+                healthyConverters.add(decoratedAddress);
             } else {
-                unhealthyConverters.add(new OCRDecorator<>(new InetSocketAddress(host, port), ocr));
+                unhealthyConverters.add(decoratedAddress);
             }
         }
 
@@ -193,7 +232,35 @@ public class WinConverterRouter {
         return Collections.unmodifiableList(sortedConverters);
     }
 
+    /**
+     * Convert a file, or copy the result of an identical conversion from the cache
+     * @param file File to convert
+     * @param outputFormat Format of the converted file, which is written next to the input file
+     * @return Converted file
+     */
     public static File convert(final File file, Format outputFormat) throws NoRegisteredConvertersException, NoReachableConvertersException, WinConverterClient.WinConverterException {
+        if (CACHE == null)
+            return convertWithConverters(file, outputFormat);
+
+        Format inputFormat = Format.getFormat(file);
+        String key = new CacheKey()
+                .add(file)
+                .add(inputFormat.toString())
+                .add(outputFormat.toString())
+                .build();
+        // Same output path WinConverterClient uses
+        String filename = file.getName();
+        File target = new File(file.getParentFile(), filename.substring(0, filename.lastIndexOf(".")) + "." + outputFormat);
+        try {
+            return CACHE.getAs(key, target, () -> convertWithConverters(file, outputFormat));
+        } catch (NoRegisteredConvertersException | NoReachableConvertersException | WinConverterClient.WinConverterException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File convertWithConverters(final File file, Format outputFormat) throws NoRegisteredConvertersException, NoReachableConvertersException, WinConverterClient.WinConverterException {
         updateConvertersIfNeeded();
 
         if (converters.isEmpty()) throw new NoRegisteredConvertersException();
@@ -211,8 +278,10 @@ public class WinConverterRouter {
             WinConverterClient converter = decoratedConverter.obj;
             try {
                 File out = converter.convert(file, outputFormat);
+                decoratedConverter.lastFailure = 0;
                 return out;
             } catch (IOException e) {
+                decoratedConverter.lastFailure = System.currentTimeMillis();
                 LOGGER.error("Exception with converter at obj " + converter.getAddress() + "; will try with next in list", e);
             }
         }
@@ -227,6 +296,20 @@ public class WinConverterRouter {
         return convert(file, outputFormat);
     }
 
+    /**
+     * Get the status of the converters pool, as of the last refresh of the list
+     * @return Registered converters, how many of them are healthy and how many support OCR
+     */
+    public static PoolStatus getPoolStatus() {
+        int healthy = 0, ocr = 0;
+        List<OCRDecorator<WinConverterClient>> currentConverters = converters;
+        for (OCRDecorator<WinConverterClient> converter : currentConverters) {
+            if (converter.isHealthy()) healthy++;
+            if (converter.supportsOcr) ocr++;
+        }
+        return new PoolStatus(currentConverters.size(), healthy, ocr);
+    }
+
     public static class NoRegisteredConvertersException extends Exception {
         public NoRegisteredConvertersException() {
             super("No WinConverters registered");
@@ -0,0 +1,62 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.ibm.icu.text.BreakIterator;
+import com.ibm.icu.util.ULocale;
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.util.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the ICU sentence iterators
+ *
+ * Building an ICU iterator loads the break rules of its language, so one prototype is built per locale and every
+ * caller gets its own clone, which is much cheaper. Prototypes are never used to iterate.
+ */
+public class BreakIteratorCache {
+
+    /**
+     * Private constructor (static class)
+     */
+    private BreakIteratorCache() {}
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(BreakIteratorCache.class);
+
+    private static final String CACHE_NAME = "icu_break_iterators";
+
+    private static final Map<ULocale, BreakIterator> prototypes = new ConcurrentHashMap<>();
+
+
+    /**
+     * Get a sentence iterator for a locale
+     * @param locale Locale
+     * @return New iterator, owned by the caller
+     */
+    public static BreakIterator getSentenceInstance(ULocale locale) {
+        BreakIterator prototype = prototypes.get(locale);
+        Metrics.countCacheLookup(CACHE_NAME, prototype != null);
+        if (prototype == null) {
+            prototype = prototypes.computeIfAbsent(locale, BreakIterator::getSentenceInstance);
+        }
+        // ICU iterators aren't thread safe, not even for cloning
+        synchronized (prototype) {
+            return (BreakIterator) prototype.clone();
+        }
+    }
+
+
+    /**
+     * Build the prototypes of the configured languages
+     */
+    public static void prewarm() {
+        for (String language : Config.prewarmLanguages) {
+            prototypes.computeIfAbsent(ULocale.forLanguageTag(language), BreakIterator::getSentenceInstance);
+        }
+        LOGGER.info("ICU sentence iterators ready: {} locales", prototypes.size());
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.okapiclient.SrxRulesCache;
+import com.matecat.converter.core.util.Config;
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IParameters;
+import net.sf.okapi.common.ISegmenter;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.annotation.DeepenSegmentationAnnotaton;
+import net.sf.okapi.common.pipeline.BasePipelineStep;
+import net.sf.okapi.common.pipeline.annotations.StepParameterMapping;
+import net.sf.okapi.common.pipeline.annotations.StepParameterType;
+import net.sf.okapi.common.resource.Custom;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextPart;
+import net.sf.okapi.common.resource.TextUnitUtil;
+import net.sf.okapi.steps.segmentation.Parameters;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source segmentation step using the compiled rules of the SrxRulesCache
+ *
+ * It behaves like Okapi's SegmentationStep with its default parameters, but instead of loading and compiling the SRX
+ * file at every batch it borrows a compiled segmenter from the cache, and gives it back when the batch ends.
+ * The step itself can be reused by the following batches.
+ *
+ * Long paragraphs are segmented by the InterruptibleSrxSegmenter, which gives the same segments but stops when the
+ * rules exceed the time budget: the paragraph is then split only on the ICU sentence boundaries, and the slow rule
+ * is logged. The fallback is never cached, so the paragraph is segmented with the rules again the next time.
+ */
+public class CachedSegmentationStep extends BasePipelineStep {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(CachedSegmentationStep.class);
+
+    // Shorter paragraphs are segmented without checking the time of the rules
+    private static final int WATCHED_LENGTH = 1000;
+
+    private final File srxFile;
+    private SrxRulesCache.Rules rules;
+    private final Parameters params = new Parameters();
+    private LocaleId sourceLocale;
+    private List<LocaleId> targetLocales;
+    private ISegmenter segmenter;
+    private InterruptibleSrxSegmenter interruptibleSegmenter;
+    private boolean watched = false;
+    private long deadline;
+    private LocaleId segmenterLocale;
+    private String segmentationId;
+    private final IcuSentenceHints hints = new IcuSentenceHints();
+
+    public CachedSegmentationStep(File srxFile) {
+        super();
+        this.srxFile = srxFile;
+    }
+
+    @StepParameterMapping(parameterType = StepParameterType.SOURCE_LOCALE)
+    public void setSourceLocale(LocaleId sourceLocale) {
+        this.sourceLocale = sourceLocale;
+    }
+
+    @StepParameterMapping(parameterType = StepParameterType.TARGET_LOCALES)
+    public void setTargetLocales(List<LocaleId> targetLocales) {
+        this.targetLocales = targetLocales;
+    }
+
+    @Override
+    public IParameters getParameters() {
+        return params;
+    }
+
+    @Override
+    protected Event handleStartBatch(Event event) {
+        // Forget the strategy requested by the documents of the previous batch
+        params.setOverwriteSegmentation(false);
+        params.setDeepenSegmentation(false);
+        return event;
+    }
+
+    @Override
+    protected Event handleStartBatchItem(Event event) {
+        if (segmenter == null) {
+            // Looked up at every batch, since the rules are dropped from the cache when their file changes
+            rules = SrxRulesCache.get(srxFile);
+            segmenter = rules.borrow(sourceLocale);
+            interruptibleSegmenter = rules.getInterruptibleSegmenter(sourceLocale);
+            segmenterLocale = sourceLocale;
+            segmentationId = getName() + ":" + rules.getHash() + ":" + sourceLocale;
+        }
+        return event;
+    }
+
+    @Override
+    protected Event handleEndBatch(Event event) {
+        releaseSegmenter();
+        return event;
+    }
+
+    @Override
+    public void destroy() {
+        releaseSegmenter();
+    }
+
+    @Override
+    protected Event handleStartDocument(Event event) {
+        IParameters filterParams = event.getStartDocument().getFilterParameters();
+        if (params.getForcesegmentedOutput() && filterParams != null)
+            filterParams.setInteger("outputSegmentationType", 3);
+        return event;
+    }
+
+    @Override
+    protected Event handleCustom(Event event) {
+        Custom custom = (Custom) event.getResource();
+        if (custom.getAnnotation(DeepenSegmentationAnnotaton.class) != null) {
+            params.setOverwriteSegmentation(false);
+            params.setDeepenSegmentation(true);
+        }
+        return event;
+    }
+
+    @Override
+    protected Event handleTextUnit(Event event) {
+        ITextUnit tu = event.getTextUnit();
+        if (tu.getProperty("canResegment") != null && tu.getProperty("canResegment").getValue().equals("no"))
+            return event;
+        if (!tu.isTranslatable())
+            return event;
+
+        Parameters.SegmStrategy strategy = params.getSegmentationStrategy();
+        if (strategy == Parameters.SegmStrategy.OVERWRITE_EXISTING || !tu.getSource().hasBeenSegmented())
+            segment(tu.getSource());
+        else if (strategy == Parameters.SegmStrategy.DEEPEN_EXISTING)
+            deepenSegmentation(tu.getSource());
+
+        if (targetLocales != null && params.getCopySource())
+            for (LocaleId targetLocale : targetLocales)
+                tu.createTarget(targetLocale, false, IResource.COPY_ALL);
+        return event;
+    }
+
+    /**
+     * Segment again every existing segment
+     */
+    private void deepenSegmentation(TextContainer tc) {
+        for (int i = tc.count() - 1; i >= 0; --i) {
+            TextPart part = tc.get(i);
+            if (!part.isSegment()) continue;
+            TextContainer segmented = new TextContainer(part);
+            segment(segmented);
+            for (int k = segmented.count() - 1; k >= 0; --k)
+                tc.insert(i, segmented.get(k));
+            tc.remove(i + segmented.count());
+        }
+    }
+
+    /**
+     * Split the content of a container in segments
+     * @param tc Text container
+     */
+    protected void segment(TextContainer tc) {
+        String codedText = tc.getCodedText();
+        List<Range> ranges;
+        try {
+            // Repeated paragraphs are segmented once
+            ranges = SegmentationCache.get(segmentationId, codedText, () -> computeWatchedSegments(tc));
+        } catch (InterruptibleSrxSegmenter.SegmentationTimeoutException e) {
+            // Not cached: the rules may be fast enough the next time
+            LOGGER.warn("Segmentation rule of {} exceeded {}ms, falling back to ICU sentences. Rule: {} Paragraph: {}",
+                    rules.getName(), Config.segmentationBudget, e.getRule().pattern(),
+                    StringUtils.abbreviate(TextUnitUtil.removeCodes(codedText), 500));
+            Metrics.countSegmentationTimeout(rules.getName());
+            SegmentationFallbacks.count();
+            ranges = getHints().getSentences(codedText);
+        }
+        tc.getSegments().create(ranges);
+    }
+
+    /**
+     * Compute the segments of a container, within the time budget if it's long
+     * @param tc Text container
+     * @return Ranges of the segments
+     * @throws InterruptibleSrxSegmenter.SegmentationTimeoutException If the rules exceeded the time budget
+     */
+    private List<Range> computeWatchedSegments(TextContainer tc) {
+        if (Config.segmentationBudget <= 0 || tc.getCodedText().length() < WATCHED_LENGTH || interruptibleSegmenter == null)
+            return computeSegments(tc);
+
+        watched = true;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.segmentationBudget);
+        try {
+            return computeSegments(tc);
+        } finally {
+            watched = false;
+        }
+    }
+
+    /**
+     * Compute the segments of a container, without changing it
+     * @param tc Text container
+     * @return Ranges of the segments in the coded text of the container
+     */
+    protected List<Range> computeSegments(TextContainer tc) {
+        return runSegmenter(tc);
+    }
+
+    /**
+     * Apply the SRX rules to a container, within the time budget if the paragraph is watched
+     * @param tc Text container
+     * @return Ranges of the segments in the coded text of the container
+     * @throws InterruptibleSrxSegmenter.SegmentationTimeoutException If the rules exceeded the time budget
+     */
+    protected List<Range> runSegmenter(TextContainer tc) {
+        if (watched)
+            return interruptibleSegmenter.computeSegments(tc, deadline);
+        segmenter.computeSegments(tc);
+        return segmenter.getRanges();
+    }
+
+    /**
+     * Get the ICU sentence boundaries of the current language
+     * @return Sentence hints
+     */
+    protected IcuSentenceHints getHints() {
+        hints.setLocale(segmenterLocale);
+        return hints;
+    }
+
+    private void releaseSegmenter() {
+        if (segmenter != null) {
+            rules.release(segmenterLocale, segmenter);
+            segmenter = null;
+            interruptibleSegmenter = null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "CachedSegmentationStep";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Apply the SRX segmentation to the source of the text units, using the compiled rules from the SrxRulesCache.";
+    }
+}
@@ -0,0 +1,290 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.ibm.icu.text.BreakIterator;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.resource.TextFragment;
+
+import java.text.CharacterIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sentence boundaries found by ICU, marked in the coded text of a segment
+ *
+ * The hints are placed where ICU finds a sentence boundary, so the SRX rules can use them. An instance keeps its
+ * iterator and buffers between segments, so it must be used by a single thread.
+ */
+public class IcuSentenceHints {
+
+    // Char marking an ICU sentence boundary, which the SRX rules can match
+    public static final char SENTENCE_BOUNDARY_PLACEHOLDER = '\uE105';
+
+    // Chars of the BMP matched by [\pZ\pC], which are treated as plain whitespaces
+    private static final boolean[] UNICODE_WHITESPACES = new boolean[Character.MAX_VALUE + 1];
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            UNICODE_WHITESPACES[c] = isUnicodeWhitespace(c);
+        }
+    }
+
+    private LocaleId locale;
+    private BreakIterator sentenceIterator;
+
+    // Buffers reused by all the segments
+    private final CharArrayIterator cleanText = new CharArrayIterator();
+    private final StringBuilder codedTextWithHints = new StringBuilder();
+    private int[] hintPositions = new int[16];
+    private int hintsCount;
+
+    /**
+     * Set the language of the texts
+     * @param locale Source language
+     */
+    void setLocale(LocaleId locale) {
+        // Keep the iterator while the language doesn't change
+        if (!locale.equals(this.locale)) {
+            this.locale = locale;
+            this.sentenceIterator = BreakIteratorCache.getSentenceInstance(locale.toIcuLocale());
+        }
+    }
+
+    /**
+     * Add the placeholders where ICU finds a sentence boundary
+     * @param codedText Coded text of a segment
+     * @return Coded text with the placeholders, or null if there's a single sentence
+     */
+    String addHints(String codedText) {
+        hintsCount = 0;
+        // The sentence iterator will be executed on a clean version of the
+        // text, without codes. This because codes chars can interfere with
+        // the ICU sentence boundary detection.
+        final char[] clean = cleanText.reset(codedText.length());
+        int cleanLength = 0;
+        for (int i = 0; i < codedText.length(); i++) {
+            char c = codedText.charAt(i);
+            if (TextFragment.isMarker(c)) {
+                // A code in the coded string is composed by a "marker char"
+                // and another following char representing a counter: skip
+                // them both
+                i++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < codedText.length() && Character.isLowSurrogate(codedText.charAt(i + 1))) {
+                // Supplementary chars are checked as a whole, and keep their two chars
+                // so the indexes in the clean text still match the coded text
+                char low = codedText.charAt(++i);
+                boolean whitespace = isUnicodeWhitespace(Character.toCodePoint(c, low));
+                clean[cleanLength++] = (whitespace ? ' ' : c);
+                clean[cleanLength++] = (whitespace ? ' ' : low);
+            } else if (UNICODE_WHITESPACES[c]) {
+                // I also transform all strange whitespaces in normal ones, to easily
+                // trim them out. This covers also newlines: ICU breaks on newlines,
+                // but we don't want this, so we treat newlines as normal whitespaces.
+                clean[cleanLength++] = ' ';
+            } else if (c == '\u2026') {
+                // Finally I replace all the "horizontal ellipsis" with simple periods,
+                // because ICU is not breaking on them, but it should.
+                clean[cleanLength++] = '.';
+            } else {
+                clean[cleanLength++] = c;
+            }
+        }
+        cleanText.setLength(cleanLength);
+        sentenceIterator.setText(cleanText);
+
+        // This will contain the final segment with marked sentences boundaries
+        codedTextWithHints.setLength(0);
+        // Vars to keep track of analyzed chars
+        int prevCodedTextIndex = 0;
+        int curCodedTextIndex = 0;
+        int curCleanTextIndex = 0;
+
+        for (int boundary = sentenceIterator.next(); boundary != BreakIterator.DONE; boundary = sentenceIterator.next()) {
+            // ICU puts always a boundary at the end of the string: skip it
+            if (boundary == cleanLength) continue;
+            // Boundary is "the zero-based index of the character following the boundary"
+            // (see http://userguide.icu-project.org/boundaryanalysis)
+            // Moreover, if there are lots of spaces between a sentence and the following,
+            // ICU puts the boundary after all the spaces, just before the first char of
+            // the next sentence. We want the boundary before these spaces, and so this loop.
+            while (boundary > 0 && clean[boundary - 1] == ' ') {
+                boundary--;
+            }
+
+            // We found a sentence boundary in the text without codes, lets
+            // obtain the index in the string with the codes.
+            // We start counting chars in the coded text, skipping the codes;
+            // when the count reaches the index of the boundary, we know the
+            // corresponding chunk in the coded text.
+            while (curCleanTextIndex < boundary) {
+                if (TextFragment.isMarker(codedText.charAt(curCodedTextIndex))) {
+                    curCodedTextIndex += 2;
+                } else {
+                    // We are on a regular char, go one character forward in both strings
+                    curCleanTextIndex++;
+                    curCodedTextIndex++;
+                }
+            }
+
+            // Ok, lets add the sentence to the output with the special delimiter
+            if (hintsCount == hintPositions.length) {
+                hintPositions = Arrays.copyOf(hintPositions, hintsCount * 2);
+            }
+            hintPositions[hintsCount++] = codedTextWithHints.length() + curCodedTextIndex - prevCodedTextIndex;
+            codedTextWithHints
+                    .append(codedText, prevCodedTextIndex, curCodedTextIndex)
+                    .append(SENTENCE_BOUNDARY_PLACEHOLDER);
+
+            // Remember the end of this sentence
+            prevCodedTextIndex = curCodedTextIndex;
+        }
+
+        // A single sentence: the segment doesn't change
+        if (hintsCount == 0) {
+            return null;
+        }
+
+        // Add the remaining text from the last sentence boundary to the end of the string
+        codedTextWithHints.append(codedText, curCodedTextIndex, codedText.length());
+        return codedTextWithHints.toString();
+    }
+
+    /**
+     * Split a coded text only where ICU finds a sentence boundary
+     * @param codedText Coded text of a paragraph
+     * @return Ranges of the sentences in the coded text
+     */
+    List<Range> getSentences(String codedText) {
+        List<Range> sentences = new ArrayList<>();
+        int start = 0;
+        if (addHints(codedText) != null) {
+            for (int i = 0; i < hintsCount; i++) {
+                // Every hint before this one shifted it by one char
+                int boundary = hintPositions[i] - i;
+                if (boundary > start) {
+                    sentences.add(new Range(start, boundary));
+                    start = boundary;
+                }
+            }
+        }
+        if (start < codedText.length() || sentences.isEmpty()) {
+            sentences.add(new Range(start, codedText.length()));
+        }
+        return sentences;
+    }
+
+    /**
+     * Convert a position in the last text with hints to the same position without them
+     * @param position Position in the coded text returned by addHints
+     * @return Position in the original coded text
+     */
+    int removeHints(int position) {
+        int hints = 0;
+        while (hints < hintsCount && hintPositions[hints] < position) {
+            hints++;
+        }
+        return position - hints;
+    }
+
+    private static boolean isUnicodeWhitespace(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.SPACE_SEPARATOR:
+            case Character.LINE_SEPARATOR:
+            case Character.PARAGRAPH_SEPARATOR:
+            case Character.CONTROL:
+            case Character.FORMAT:
+            case Character.PRIVATE_USE:
+            case Character.SURROGATE:
+            case Character.UNASSIGNED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Character iterator on a reusable buffer, to give the text to ICU without copying it in a string
+     */
+    private static final class CharArrayIterator implements CharacterIterator {
+
+        private char[] buffer = new char[256];
+        private int length;
+        private int index;
+
+        private char[] reset(int capacity) {
+            if (buffer.length < capacity) {
+                buffer = new char[Math.max(capacity, buffer.length * 2)];
+            }
+            length = 0;
+            index = 0;
+            return buffer;
+        }
+
+        private void setLength(int length) {
+            this.length = length;
+            this.index = 0;
+        }
+
+        @Override
+        public char first() {
+            index = 0;
+            return current();
+        }
+
+        @Override
+        public char last() {
+            index = (length > 0 ? length - 1 : 0);
+            return current();
+        }
+
+        @Override
+        public char current() {
+            return (index < length ? buffer[index] : DONE);
+        }
+
+        @Override
+        public char next() {
+            if (index < length) index++;
+            return current();
+        }
+
+        @Override
+        public char previous() {
+            if (index == 0) return DONE;
+            index--;
+            return current();
+        }
+
+        @Override
+        public char setIndex(int position) {
+            if (position < 0 || position > length)
+                throw new IllegalArgumentException("Invalid index " + position);
+            index = position;
+            return current();
+        }
+
+        @Override
+        public int getBeginIndex() {
+            return 0;
+        }
+
+        @Override
+        public int getEndIndex() {
+            return length;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Object clone() {
+            try {
+                return super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segmentation step for the SRX rules which break on the ICU sentence boundaries
+ *
+ * The SRX rules are applied to a copy of the text with the hints, and the resulting segments are mapped back to the
+ * text without them. The hints are never written in the text units.
+ */
+public class IcuSrxSegmentationStep extends CachedSegmentationStep {
+
+    // Copy of the content with the hints, reused by all the segments
+    private final TextFragment hintedContent = new TextFragment();
+    private final TextContainer hintedContainer = new TextContainer(hintedContent);
+
+    public IcuSrxSegmentationStep(File srxFile) {
+        super(srxFile);
+    }
+
+    @Override
+    protected List<Range> computeSegments(TextContainer tc) {
+        IcuSentenceHints hints = getHints();
+        TextFragment content = (tc.contentIsOneSegment() ? tc.getFirstContent() : tc.getUnSegmentedContentCopy());
+        String codedTextWithHints = hints.addHints(content.getCodedText());
+        if (codedTextWithHints == null) {
+            // A single sentence for ICU: nothing to map
+            return super.computeSegments(tc);
+        }
+
+        hintedContent.setCodedText(codedTextWithHints, content.getCodes(), true);
+        List<Range> hintedRanges = runSegmenter(hintedContainer);
+
+        // Same segments, without the hints
+        List<Range> ranges = new ArrayList<>();
+        for (Range range : hintedRanges) {
+            int start = hints.removeHints(range.start);
+            int end = hints.removeHints(range.end);
+            if (start < end) {
+                ranges.add(new Range(start, end));
+            }
+        }
+        return ranges;
+    }
+
+    @Override
+    public String getName() {
+        return "IcuSrxSegmentationStep";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Apply the SRX segmentation to the source of the text units, using the ICU sentence boundaries as hints for the rules.";
+    }
+}
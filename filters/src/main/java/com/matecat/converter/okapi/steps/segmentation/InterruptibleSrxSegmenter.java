@@ -0,0 +1,350 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.common.resource.TextUnitUtil;
+import net.sf.okapi.lib.segmentation.SRXDocument;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SRX segmenter with a time budget
+ *
+ * Java regular expressions can't be stopped, and some rules backtrack catastrophically on long texts. This segmenter
+ * computes the same segments as Okapi's SRXSegmenter, with the same compiled rules, but it matches them on a text
+ * which fails when the deadline is over, so a rule which would take too long is stopped while it runs.
+ *
+ * It is stateless, so a single instance can be shared by all the threads.
+ */
+public class InterruptibleSrxSegmenter {
+
+    // Reading the clock at every char would slow down the matching
+    private static final int CHARS_BETWEEN_CHECKS = 1024;
+
+    private static final String ISOLATED_CODE_REPLACEMENT_TEXT = " ";
+
+    private final List<Pattern> patterns;
+    private final boolean[] breaks;
+    private final Pattern maskRule;
+    private final boolean includeStartCodes;
+    private final boolean includeEndCodes;
+    private final boolean includeIsolatedCodes;
+    private final boolean oneSegmentIncludesAll;
+    private final boolean trimLeadingWS;
+    private final boolean trimTrailingWS;
+    private final boolean treatIsolatedCodesAsWhitespace;
+
+
+    /**
+     * Thrown when a rule exceeds the time budget
+     */
+    public static class SegmentationTimeoutException extends RuntimeException {
+
+        private final Pattern rule;
+
+        SegmentationTimeoutException(Pattern rule) {
+            super("Segmentation rule exceeded its time budget: " + rule.pattern(), null, false, false);
+            this.rule = rule;
+        }
+
+        /**
+         * Get the rule which was running when the budget was over
+         * @return Rule
+         */
+        public Pattern getRule() {
+            return rule;
+        }
+    }
+
+
+    /**
+     * Thrown by the text when the deadline is over
+     */
+    private static class DeadlineExceededException extends RuntimeException {
+        private DeadlineExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+
+    /**
+     * Text which fails when read after its deadline
+     */
+    private static class DeadlineCharSequence implements CharSequence {
+
+        private final String text;
+        private final long deadline;
+        private int reads = 0;
+
+        private DeadlineCharSequence(String text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHARS_BETWEEN_CHECKS) {
+                reads = 0;
+                if (System.nanoTime() - deadline > 0)
+                    throw new DeadlineExceededException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+
+    /**
+     * Constructor
+     * @param document Rules document, for the options and the mask rule
+     * @param patterns Compiled rules of a language, in the order they are applied
+     * @param breaks Whether each rule is a break rule
+     */
+    public InterruptibleSrxSegmenter(SRXDocument document, List<Pattern> patterns, boolean[] breaks) {
+        this.patterns = patterns;
+        this.breaks = breaks;
+        String mask = document.getMaskRule();
+        this.maskRule = (mask != null && !mask.isEmpty() ? Pattern.compile(mask, Pattern.UNICODE_CHARACTER_CLASS) : null);
+        this.includeStartCodes = document.includeStartCodes();
+        this.includeEndCodes = document.includeEndCodes();
+        this.includeIsolatedCodes = document.includeIsolatedCodes();
+        this.oneSegmentIncludesAll = document.oneSegmentIncludesAll();
+        this.trimLeadingWS = document.trimLeadingWhitespaces();
+        this.trimTrailingWS = document.trimTrailingWhitespaces();
+        this.treatIsolatedCodesAsWhitespace = document.treatIsolatedCodesAsWhitespace();
+    }
+
+
+    /**
+     * Compute the segments of a container, as SRXSegmenter.computeSegments and getRanges do
+     * @param container Text container, which is not changed
+     * @param deadline Value of System.nanoTime() after which the segmentation is stopped
+     * @return Ranges of the segments in the coded text of the container
+     * @throws SegmentationTimeoutException If the deadline is over before all the rules have been applied
+     */
+    public List<Range> computeSegments(TextContainer container, long deadline) {
+        boolean hasCode = (container.contentIsOneSegment() ?
+                container.getSegments().getFirstContent().hasCode() :
+                container.getUnSegmentedContentCopy().hasCode());
+
+        // Apply the rules to the text without codes
+        String codedText = container.getCodedText();
+        List<Integer> origCodePositions = storeOriginalCodePositions(codedText);
+        List<Integer> codePositions = storeCodePositions(codedText);
+        String text = (treatIsolatedCodesAsWhitespace ?
+                TextUnitUtil.removeAndReplaceCodes(codedText, ISOLATED_CODE_REPLACEMENT_TEXT) :
+                TextUnitUtil.removeCodes(codedText));
+        DeadlineCharSequence sequence = new DeadlineCharSequence(text, deadline);
+        TreeMap<Integer, Boolean> splits = new TreeMap<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            try {
+                Matcher matcher = patterns.get(i).matcher(sequence);
+                matcher.useTransparentBounds(true);
+                int start = 0;
+                int prevStart = -1;
+                while (start != prevStart && matcher.find(start)) {
+                    int position = matcher.start() + matcher.group(1).length();
+                    prevStart = start;
+                    start = position;
+                    if (position > text.length() || splits.containsKey(position)) continue;
+                    splits.put(position, breaks[i]);
+                }
+            } catch (DeadlineExceededException e) {
+                throw new SegmentationTimeoutException(patterns.get(i));
+            }
+        }
+
+        // Move the splits back to the text with codes
+        TreeMap<Integer, Boolean> codedSplits = new TreeMap<>();
+        for (Map.Entry<Integer, Boolean> split : splits.entrySet()) {
+            codedSplits.put(recalcPos(codedText, split.getKey(), codePositions, origCodePositions), split.getValue());
+        }
+        splits = codedSplits;
+
+        if (maskRule != null) {
+            try {
+                Matcher matcher = maskRule.matcher(new DeadlineCharSequence(codedText, deadline));
+                while (matcher.find()) {
+                    for (int i = matcher.start(); i < matcher.end(); i++) {
+                        splits.remove(i);
+                    }
+                    if (matcher.start() > 0) {
+                        splits.put(matcher.start(), true);
+                    }
+                    splits.put(matcher.end(), true);
+                }
+            } catch (DeadlineExceededException e) {
+                throw new SegmentationTimeoutException(maskRule);
+            }
+        }
+
+        // Break positions, after the codes included in the previous segment
+        List<Integer> finalSplits = new ArrayList<>();
+        EnumSet<TextFragment.Marker> includedCodes = EnumSet.noneOf(TextFragment.Marker.class);
+        if (includeStartCodes) includedCodes.add(TextFragment.Marker.OPENING);
+        if (includeEndCodes) includedCodes.add(TextFragment.Marker.CLOSING);
+        if (includeIsolatedCodes) includedCodes.add(TextFragment.Marker.ISOLATED);
+        for (Map.Entry<Integer, Boolean> split : splits.entrySet()) {
+            int position = split.getKey();
+            if (!split.getValue()) continue;
+            if (hasCode) {
+                if (position >= codedText.length()) continue;
+                if (includedCodes.contains(TextFragment.Marker.asEnum(codedText.charAt(position)))) {
+                    do {
+                        position += 2;
+                    } while (position < codedText.length() - 1 && includedCodes.contains(TextFragment.Marker.asEnum(codedText.charAt(position))));
+                }
+            }
+            finalSplits.add(position);
+        }
+
+        // Segments, trimmed as requested by the rules
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        int textStart = 0;
+        for (int position : finalSplits) {
+            if (position >= codedText.length()) continue;
+            int trimmedTextStart = TextFragment.indexOfFirstNonWhitespace(codedText, textStart, position - 1, false, false, false, trimLeadingWS);
+            if (trimmedTextStart == -1) continue;
+            if (trimLeadingWS) {
+                textStart = trimmedTextStart;
+            }
+            int textEnd = (trimTrailingWS ?
+                    TextFragment.indexOfLastNonWhitespace(codedText, position - 1, 0, false, false, false, true) :
+                    position - 1);
+            if (textEnd >= textStart) {
+                if (textEnd < position) {
+                    textEnd++;
+                }
+                starts.add(textStart);
+                ends.add(textEnd);
+            }
+            textStart = position;
+        }
+        int lastPos = codedText.length();
+        if (textStart < lastPos) {
+            int trimmedTextStart = TextFragment.indexOfFirstNonWhitespace(codedText, textStart, lastPos - 1, false, false, false, trimLeadingWS);
+            if (trimLeadingWS && trimmedTextStart != -1) {
+                textStart = trimmedTextStart;
+            }
+            if (trimmedTextStart != -1 && trimmedTextStart < lastPos) {
+                int textEnd = (trimTrailingWS ?
+                        TextFragment.indexOfLastNonWhitespace(codedText, lastPos - 1, textStart, false, false, false, true) :
+                        lastPos - 1);
+                if (textEnd >= textStart) {
+                    if (textEnd < lastPos) {
+                        textEnd++;
+                    }
+                    starts.add(textStart);
+                    ends.add(textEnd);
+                }
+            }
+        }
+        if (starts.size() == 1 && oneSegmentIncludesAll) {
+            starts.set(0, 0);
+            ends.clear();
+        }
+        ends.add(lastPos);
+
+        List<Range> ranges = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            ranges.add(new Range(starts.get(i), ends.get(i)));
+        }
+        return ranges;
+    }
+
+
+    /**
+     * Length of the codes before a position of the text without codes
+     */
+    private int getCodesLength(int nonIsolatedCodes, int isolatedCodes) {
+        return nonIsolatedCodes * 2 + isolatedCodes * (treatIsolatedCodesAsWhitespace ? ISOLATED_CODE_REPLACEMENT_TEXT.length() : 2);
+    }
+
+
+    /**
+     * Convert a position of the text without codes to a position of the coded text
+     */
+    private int recalcPos(String codedText, int position, List<Integer> codePositions, List<Integer> origCodePositions) {
+        int nonIsolatedCodes = 0;
+        int isolatedCodes = 0;
+        for (int i = 0; i < codePositions.size(); i++) {
+            if (codePositions.get(i) >= position) break;
+            if (TextFragment.Marker.asEnum(codedText.charAt(origCodePositions.get(i))) == TextFragment.Marker.ISOLATED)
+                isolatedCodes++;
+            else
+                nonIsolatedCodes++;
+        }
+        return position + getCodesLength(nonIsolatedCodes, isolatedCodes);
+    }
+
+
+    /**
+     * Positions of the codes in the text without codes
+     */
+    private List<Integer> storeCodePositions(String codedText) {
+        List<Integer> positions = new ArrayList<>();
+        int nonIsolatedCodes = 0;
+        int isolatedCodes = 0;
+        for (int i = 0; i < codedText.length(); i++) {
+            switch (TextFragment.Marker.asEnum(codedText.charAt(i))) {
+                case OPENING:
+                case CLOSING:
+                    positions.add(i - getCodesLength(nonIsolatedCodes, isolatedCodes));
+                    nonIsolatedCodes++;
+                    i++;
+                    break;
+                case ISOLATED:
+                    positions.add(i - getCodesLength(nonIsolatedCodes, isolatedCodes));
+                    isolatedCodes++;
+                    i++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return positions;
+    }
+
+
+    /**
+     * Positions of the codes in the coded text
+     */
+    private static List<Integer> storeOriginalCodePositions(String codedText) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < codedText.length(); i++) {
+            switch (codedText.charAt(i)) {
+                case TextFragment.MARKER_OPENING:
+                case TextFragment.MARKER_CLOSING:
+                case TextFragment.MARKER_ISOLATED:
+                    positions.add(i++);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return positions;
+    }
+
+}
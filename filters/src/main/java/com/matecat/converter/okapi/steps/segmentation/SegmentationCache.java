@@ -0,0 +1,105 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.util.Config;
+import net.sf.okapi.common.Range;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the segment boundaries of the paragraphs
+ *
+ * The same paragraphs and boilerplate come back in many files, so their segmentation is kept by rules, language and
+ * coded text in a bounded LRU map. Very long paragraphs are not cached: they rarely repeat, and would take most of
+ * the memory of the cache.
+ */
+public class SegmentationCache {
+
+    /**
+     * Private constructor (static class)
+     */
+    private SegmentationCache() {}
+
+    private static final String CACHE_NAME = "segmentation";
+
+    // Longest coded text which is cached
+    private static final int MAX_TEXT_LENGTH = 10000;
+
+    private static final Map<Key, int[]> boundaries = new LinkedHashMap<Key, int[]>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+            return size() > Config.segmentationCacheSize;
+        }
+    };
+
+
+    /**
+     * Key of a paragraph
+     */
+    private static class Key {
+
+        private final String segmentation;
+        private final String codedText;
+
+        private Key(String segmentation, String codedText) {
+            this.segmentation = segmentation;
+            this.codedText = codedText;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return segmentation.equals(other.segmentation) && codedText.equals(other.codedText);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segmentation.hashCode() + codedText.hashCode();
+        }
+    }
+
+
+    /**
+     * Get the segments of a paragraph, computing them if they're not cached
+     * @param segmentation Identity of the segmentation: step, rules hash and language
+     * @param codedText Coded text of the paragraph
+     * @param segmenter Computation of the segments of the paragraph
+     * @return Ranges of the segments in the coded text, owned by the caller
+     */
+    public static List<Range> get(String segmentation, String codedText, Supplier<List<Range>> segmenter) {
+        if (Config.segmentationCacheSize <= 0 || codedText.length() > MAX_TEXT_LENGTH) {
+            return segmenter.get();
+        }
+
+        Key key = new Key(segmentation, codedText);
+        int[] cached;
+        synchronized (boundaries) {
+            cached = boundaries.get(key);
+        }
+        Metrics.countCacheLookup(CACHE_NAME, cached != null);
+        if (cached != null) {
+            List<Range> ranges = new ArrayList<>(cached.length / 2);
+            for (int i = 0; i < cached.length; i += 2) {
+                ranges.add(new Range(cached[i], cached[i + 1]));
+            }
+            return ranges;
+        }
+
+        List<Range> ranges = segmenter.get();
+        int[] computed = new int[ranges.size() * 2];
+        for (int i = 0; i < ranges.size(); i++) {
+            computed[2 * i] = ranges.get(i).start;
+            computed[2 * i + 1] = ranges.get(i).end;
+        }
+        synchronized (boundaries) {
+            boundaries.put(key, computed);
+        }
+        return ranges;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+/**
+ * Count of the paragraphs segmented with the ICU fallback by the current thread
+ *
+ * The fallback is used when the rules exceed their time budget, which may be only a transient slowdown, so nothing
+ * containing it should be cached. The pipelines run on the thread of their conversion: a conversion whose count
+ * changed while it ran contains degraded segments.
+ */
+public class SegmentationFallbacks {
+
+    /**
+     * Private constructor (static class)
+     */
+    private SegmentationFallbacks() {}
+
+    private static final ThreadLocal<int[]> fallbacks = ThreadLocal.withInitial(() -> new int[1]);
+
+
+    /**
+     * Count a paragraph segmented with the fallback
+     */
+    static void count() {
+        fallbacks.get()[0]++;
+    }
+
+
+    /**
+     * Get the number of paragraphs segmented with the fallback by the current thread
+     * @return Count, to be compared with a previous one
+     */
+    public static int get() {
+        return fallbacks.get()[0];
+    }
+
+}
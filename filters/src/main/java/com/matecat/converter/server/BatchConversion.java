@@ -0,0 +1,333 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.Format;
+import com.matecat.converter.core.project.Project;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Batch conversion
+ *
+ * Converts the files of a batch request in parallel on the conversion executor, and writes the result of every
+ * file as soon as it is ready, as one JSON object per line with the index of the file in the request. The failure
+ * of a file only affects its own result.
+ *
+ * At most as many files as executor threads are submitted at the same time, and the next one is submitted when
+ * one of them ends, so a big batch doesn't fill the executor queue. When a file is rejected by the executor it is
+ * retried once another file of the batch ends; if none is running, the file fails with the rejection message.
+ * Files interrupted or cancelled by the drain of the executor are reported as interrupted, and their files deleted.
+ */
+public class BatchConversion {
+
+    // Logger
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchConversion.class);
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Conversion of a single file
+     */
+    @FunctionalInterface
+    public interface FileConversion {
+
+        /**
+         * Convert the file
+         * @return JSON object describing the result
+         * @throws Exception If the conversion fails
+         */
+        JSONStreamingOutput convert() throws Exception;
+    }
+
+    private final ConversionExecutor executor;
+    private final Function<Exception, String> errorMessages;
+    private final ChunkedOutput<StreamingOutput> output = new SerializedChunkedOutput();
+    private final List<Item> items = new ArrayList<>();
+    private final Deque<Item> pending = new ArrayDeque<>();
+    private int running = 0;
+    private int remaining;
+    private boolean started = false;
+
+
+    /**
+     * Constructor
+     * @param executor Executor running the conversions
+     * @param errorMessages Error message returned to the client for every conversion exception
+     */
+    public BatchConversion(ConversionExecutor executor, Function<Exception, String> errorMessages) {
+        this.executor = executor;
+        this.errorMessages = errorMessages;
+    }
+
+
+    /**
+     * Add a file to the batch
+     * @param filename Filename, returned along with the errors
+     * @param project Project of the file, closed once the batch has been written
+     * @param format Format of the file, used to apply the per-format limits
+     * @param conversion Conversion of the file
+     */
+    public void add(String filename, Project project, Format format, FileConversion conversion) {
+        items.add(new Item(items.size(), filename, project, format, conversion, null));
+    }
+
+
+    /**
+     * Add a file that failed before its conversion, so the batch reports its error in the right position
+     * @param filename Filename, returned along with the error
+     * @param project Project of the file, if it was created (can be null)
+     * @param error Exception raised
+     */
+    public void addError(String filename, Project project, Exception error) {
+        items.add(new Item(items.size(), filename, project, null, null, error));
+    }
+
+
+    /**
+     * Start the conversions
+     *
+     * The projects of the files are closed once all the results have been written.
+     * @return Output where the results are written, to be returned as the entity of the response
+     * @throws ConversionRejectedException If the executor doesn't accept any of the files
+     */
+    public ChunkedOutput<StreamingOutput> start() throws ConversionRejectedException {
+        List<Item> failed = new ArrayList<>();
+        synchronized (this) {
+            remaining = items.size();
+            for (Item item : items) {
+                if (item.conversion != null)
+                    pending.add(item);
+                else
+                    failed.add(item);
+            }
+            if (!pending.isEmpty())
+                try {
+                    submitPending();
+                } catch (ConversionRejectedException e) {
+                    // Nothing was accepted: reject the whole batch
+                    pending.clear();
+                    items.forEach(item -> item.close(!item.failed));
+                    throw e;
+                }
+            started = true;
+        }
+
+        // Files which failed before their conversion
+        for (Item item : failed)
+            complete(item, getError(item, item.error));
+        if (items.isEmpty())
+            finish();
+
+        return output;
+    }
+
+
+    /**
+     * Submit the pending files, up to the number of executor threads
+     * @throws ConversionRejectedException If the batch is starting and none of its files can be accepted
+     */
+    private synchronized void submitPending() throws ConversionRejectedException {
+        while (running < executor.getThreads() && !pending.isEmpty()) {
+            Item item = pending.peek();
+            try {
+                executor.submit(item.format, () -> {
+                    run(item);
+                    return null;
+                }, () -> done(item));
+            } catch (ConversionRejectedException e) {
+                if (running > 0)
+                    // Retry once one of the running files ends
+                    return;
+                if (!started)
+                    throw e;
+                pending.poll();
+                complete(item, JSONResponseFactory.getErrorOutput(e.getMessage())
+                        .put(JSONResponseFactory.FILENAME, item.filename));
+                continue;
+            }
+            pending.poll();
+            running++;
+        }
+    }
+
+
+    /**
+     * Convert a file and write its result
+     */
+    private void run(Item item) {
+        if (!item.claimed.compareAndSet(false, true))
+            return;
+        JSONStreamingOutput result;
+        try {
+            result = item.conversion.convert();
+        } catch (Exception e) {
+            if (ConversionExecutor.isInterruption(e)) {
+                result = getInterrupted(item);
+            } else {
+                item.failed = true;
+                result = getError(item, e);
+            }
+        }
+        synchronized (this) {
+            running--;
+        }
+        complete(item, result);
+    }
+
+
+    /**
+     * Once a file is done and its executor permit has been released, write its result if it was cancelled before
+     * running, and submit the next pending files
+     */
+    private void done(Item item) {
+        if (item.claimed.compareAndSet(false, true)) {
+            synchronized (this) {
+                running--;
+            }
+            complete(item, getInterrupted(item));
+        }
+        submitNext();
+    }
+
+
+    /**
+     * Submit the next pending files
+     */
+    private void submitNext() {
+        try {
+            submitPending();
+        } catch (ConversionRejectedException ignored) {
+            // Only thrown while the batch is starting
+        }
+    }
+
+
+    /**
+     * Build the result of a failed file
+     */
+    private JSONStreamingOutput getError(Item item, Exception e) {
+        String errorMessage = errorMessages.apply(e);
+        LOGGER.error("Exception converting {} in batch: {}", item.filename, errorMessage, e);
+        return JSONResponseFactory.getErrorOutput(errorMessage)
+                .put(JSONResponseFactory.FILENAME, item.filename);
+    }
+
+
+    /**
+     * Build the result of a file interrupted by the executor
+     */
+    private JSONStreamingOutput getInterrupted(Item item) {
+        String errorMessage = executor.getInterruptionMessage();
+        LOGGER.warn("Conversion of {} in batch interrupted: {}", item.filename, errorMessage);
+        return JSONResponseFactory.getErrorOutput(errorMessage)
+                .put(JSONResponseFactory.FILENAME, item.filename);
+    }
+
+
+    /**
+     * Write the result of a file, finishing the batch if it was the last one
+     */
+    private void complete(Item item, JSONStreamingOutput result) {
+        write(item, result);
+        boolean last;
+        synchronized (this) {
+            last = (--remaining == 0);
+        }
+        if (last)
+            finish();
+    }
+
+
+    /**
+     * Write the result of a file
+     */
+    private void write(Item item, JSONStreamingOutput result) {
+        try {
+            output.write(result.put(JSONResponseFactory.INDEX, item.index));
+        } catch (IOException e) {
+            // The client is gone: don't start any other file
+            LOGGER.warn("Batch client disconnected: {}", e.getMessage());
+            synchronized (this) {
+                remaining -= pending.size();
+                pending.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Close the output and the projects of the files
+     */
+    private void finish() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOGGER.warn("Exception closing the batch output: {}", e.getMessage());
+        }
+        for (Item item : items)
+            // Keep the files only if the conversion failed
+            item.close(!item.failed);
+        LOGGER.info("Batch of {} files completed", items.size());
+    }
+
+
+    /**
+     * File of the batch
+     */
+    private static class Item {
+        private final int index;
+        private final String filename;
+        private final Project project;
+        private final Format format;
+        private final FileConversion conversion;
+        private final Exception error;
+        private volatile boolean failed;
+        // Set by whichever writes the result: the conversion, or the executor callback if it never ran
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private Item(int index, String filename, Project project, Format format, FileConversion conversion, Exception error) {
+            this.index = index;
+            this.filename = filename;
+            this.project = project;
+            this.format = format;
+            this.conversion = conversion;
+            this.error = error;
+            this.failed = (error != null);
+        }
+
+        private void close(boolean success) {
+            if (project != null)
+                project.close(success);
+        }
+    }
+
+
+    /**
+     * Chunked output whose flushes never overlap
+     *
+     * The results are written by the conversion threads. ChunkedOutput lets only one thread write at a time, but
+     * close() doesn't wait for a write in progress on another thread, so all the flushes are serialized.
+     */
+    private static class SerializedChunkedOutput extends ChunkedOutput<StreamingOutput> {
+
+        private SerializedChunkedOutput() {
+            super(StreamingOutput.class, "\n");
+        }
+
+        @Override
+        protected synchronized void flushQueue() throws IOException {
+            super.flushQueue();
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.Format;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Conversion executor
+ *
+ * Runs the conversions on a dedicated pool of threads, so that the server's request threads only read requests
+ * and write responses, while the conversions of the suspended requests run here. The executor bounds the number
+ * of running conversions, the number of conversions waiting for a free thread, and optionally the number of
+ * conversions (running plus waiting) of every single format. When one of these limits is reached the conversion
+ * is rejected immediately with a ConversionRejectedException, so that the server can answer with a 503 instead
+ * of accumulating work until it runs out of memory.
+ */
+public class ConversionExecutor {
+
+    // Logger
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConversionExecutor.class);
+
+    // Milliseconds given to the cancelled conversions to stop, once the drain timeout expires
+    private static final long CANCEL_TIMEOUT = 10_000;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Format, Semaphore> formatPermits;
+    private final int retryAfter;
+    private final int timeout;
+    private volatile boolean draining = false;
+
+
+    /**
+     * Constructor
+     * @param threads Number of conversions running at the same time
+     * @param queueSize Number of conversions waiting for a free thread
+     * @param formatLimits Max number of running plus waiting conversions, per format
+     * @param retryAfter Seconds suggested to the rejected clients before retrying
+     * @param timeout Seconds after which the conversions of asynchronous requests are cancelled
+     */
+    public ConversionExecutor(int threads, int queueSize, Map<Format, Integer> formatLimits, int retryAfter, int timeout) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("The number of threads must be greater than zero");
+        if (queueSize < 0)
+            throw new IllegalArgumentException("The queue size cannot be negative");
+
+        BlockingQueue<Runnable> queue = (queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize));
+        AtomicInteger threadsCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                runnable -> new Thread(runnable, "conversion-" + threadsCounter.incrementAndGet()));
+
+        Map<Format, Semaphore> permits = new EnumMap<>(Format.class);
+        formatLimits.forEach((format, limit) -> permits.put(format, new Semaphore(limit)));
+        this.formatPermits = Collections.unmodifiableMap(permits);
+        this.retryAfter = retryAfter;
+        this.timeout = timeout;
+
+        LOGGER.info("Conversion executor ready: {} threads, {} queued conversions, format limits {}", threads, queueSize, formatLimits);
+    }
+
+
+    /**
+     * Submit a conversion
+     * @param format Format of the converted file, used to apply the per-format limits (can be null)
+     * @param task Conversion to run
+     * @return Future of the conversion result
+     * @throws ConversionRejectedException If the conversion cannot be accepted right now
+     */
+    public <T> Future<T> submit(Format format, Callable<T> task) throws ConversionRejectedException {
+        return submit(format, task, null);
+    }
+
+
+    /**
+     * Submit a conversion, with a callback run once it is done and its permit has been released
+     *
+     * A cancelled conversion keeps its permit until its thread actually leaves it, since the filters may not stop
+     * at the interruption; a conversion cancelled before starting releases it right away.
+     * @param format Format of the converted file, used to apply the per-format limits (can be null)
+     * @param task Conversion to run
+     * @param whenDone Callback run when the conversion thread leaves the conversion, or when it is cancelled before
+     *                 starting (can be null)
+     * @return Future of the conversion result
+     * @throws ConversionRejectedException If the conversion cannot be accepted right now
+     */
+    public <T> Future<T> submit(Format format, Callable<T> task, Runnable whenDone) throws ConversionRejectedException {
+        if (draining)
+            throw new ConversionRejectedException("The server is shutting down, retry later", retryAfter);
+
+        final Semaphore permits = (format == null ? null : formatPermits.get(format));
+        if (permits != null && !permits.tryAcquire()) {
+            LOGGER.warn("Rejecting {} conversion: format limit reached", format);
+            throw new ConversionRejectedException("Too many " + format + " conversions in progress, retry later", retryAfter);
+        }
+
+        // Claimed either by the thread running the task, or by the cancellation of a task not started yet
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final Runnable release = () -> {
+            if (permits != null) permits.release();
+            if (whenDone != null) whenDone.run();
+        };
+        FutureTask<T> future = new FutureTask<T>(() -> {
+            if (!claimed.compareAndSet(false, true))
+                return null;
+            try {
+                return task.call();
+            } finally {
+                release.run();
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (claimed.compareAndSet(false, true))
+                    release.run();
+            }
+        };
+
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            if (permits != null) permits.release();
+            LOGGER.warn("Rejecting {} conversion: conversion queue is full", format);
+            throw new ConversionRejectedException("The server is too busy, retry later", retryAfter);
+        }
+        return future;
+    }
+
+
+    /**
+     * Run the conversion of an asynchronous request
+     *
+     * The request is resumed with the response returned by the conversion. If the conversion doesn't end within
+     * the timeout, it is cancelled and the request is resumed with a 503. Conversions interrupted or cancelled by
+     * the drain are resumed with a 503 too, asking the client to retry later.
+     * @param asyncResponse Suspended response of the request
+     * @param format Format of the converted file, used to apply the per-format limits (can be null)
+     * @param conversion Conversion to run, returning the response for the client; it should rethrow the
+     *                   exceptions for which isInterruption is true
+     * @param whenInterrupted Callback run before answering a conversion interrupted by the drain (can be null)
+     * @throws ConversionRejectedException If the conversion cannot be accepted right now
+     */
+    public void execute(AsyncResponse asyncResponse, Format format, Callable<Response> conversion, Runnable whenInterrupted)
+            throws ConversionRejectedException {
+        final AtomicReference<Future<?>> future = new AtomicReference<>();
+
+        // Set the timeout before submitting, so it is in place even if the conversion ends immediately
+        asyncResponse.setTimeoutHandler(timedOutResponse -> {
+            Future<?> timedOutConversion = future.get();
+            if (timedOutConversion != null)
+                timedOutConversion.cancel(true);
+            LOGGER.warn("Conversion timed out after {} seconds", timeout);
+            timedOutResponse.resume(Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(JSONResponseFactory.getError("The conversion took too long and has been cancelled"))
+                    .build());
+        });
+        asyncResponse.setTimeout(timeout, TimeUnit.SECONDS);
+
+        future.set(submit(format, () -> {
+            try {
+                asyncResponse.resume(conversion.call());
+            } catch (Throwable e) {
+                if (isInterruption(e))
+                    resumeInterrupted(asyncResponse, whenInterrupted);
+                else
+                    asyncResponse.resume(e);
+            }
+            return null;
+        }, () -> {
+            // Conversions dropped by the drain still answer their clients
+            if (draining && future.get() != null && future.get().isCancelled() && !asyncResponse.isDone())
+                resumeInterrupted(asyncResponse, whenInterrupted);
+        }));
+    }
+
+
+    /**
+     * Resume a request whose conversion was interrupted, asking the client to retry later
+     */
+    private void resumeInterrupted(AsyncResponse asyncResponse, Runnable whenInterrupted) {
+        if (whenInterrupted != null)
+            whenInterrupted.run();
+        asyncResponse.resume(Response
+                .status(Response.Status.SERVICE_UNAVAILABLE)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .header("Retry-After", retryAfter)
+                .entity(JSONResponseFactory.getError(getInterruptionMessage()))
+                .build());
+    }
+
+
+    /**
+     * Get the message returned for the conversions interrupted by the drain or by a timeout
+     * @return Error message
+     */
+    public String getInterruptionMessage() {
+        return (draining ? "The server is shutting down, retry later" : "The conversion has been cancelled, retry later");
+    }
+
+
+    /**
+     * Check if a conversion failed because its thread was interrupted or its future cancelled, rather than because
+     * of the file
+     * @param e Exception thrown by the conversion
+     * @return True if the conversion was interrupted
+     */
+    public static boolean isInterruption(Throwable e) {
+        if (Thread.currentThread().isInterrupted())
+            return true;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException || cause instanceof CancellationException)
+                return true;
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+
+    /**
+     * Stop accepting conversions, and wait for the accepted ones to end
+     *
+     * The conversions still running or waiting when the timeout expires are cancelled.
+     * @param timeout Milliseconds to wait
+     * @return True if all the conversions ended in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean drain(long timeout) throws InterruptedException {
+        draining = true;
+        executor.shutdown();
+        if (executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+            return true;
+
+        LOGGER.warn("Cancelling {} running and {} waiting conversions after the drain timeout", getActiveCount(), getQueuedCount());
+        for (Runnable waiting : executor.shutdownNow())
+            if (waiting instanceof Future)
+                ((Future<?>) waiting).cancel(false);
+        executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS);
+        return false;
+    }
+
+
+    /**
+     * Check if the executor is draining, this is, rejecting new conversions
+     * @return True if draining
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+
+    /**
+     * Get the number of conversions that can run at the same time
+     * @return Number of threads
+     */
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+
+    /**
+     * Get the number of conversions running right now
+     * @return Running conversions
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * Get the number of conversions waiting for a free thread
+     * @return Waiting conversions
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * Stop the executor, interrupting the running conversions
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
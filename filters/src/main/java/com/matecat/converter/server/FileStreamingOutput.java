@@ -0,0 +1,82 @@
+package com.matecat.converter.server;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming file
+ *
+ * Writes a file as the body of the response. When the response is backed by Jetty, the file is memory mapped and
+ * handed to Jetty, which writes it to the socket without copying it through the heap.
+ *
+ * Jersey sets the status and headers of the response only once its own buffer is full, so the beginning of the
+ * file is always written through the Jersey stream, and the rest is sent directly by Jetty.
+ */
+public class FileStreamingOutput implements StreamingOutput {
+
+    // Bigger than the Jersey buffer (8 KB by default), so writing it commits the response
+    private static final int HEAD_SIZE = 64 * 1024;
+
+    private final File file;
+    private final OutputStream servletOutput;
+
+
+    /**
+     * Constructor
+     * @param file File to be written
+     * @param servletOutput Output stream of the servlet response, as returned by getOutputStream (can be null)
+     */
+    public FileStreamingOutput(File file, OutputStream servletOutput) {
+        this.file = file;
+        this.servletOutput = servletOutput;
+    }
+
+
+    /**
+     * Write the file
+     * @param output Jersey output stream
+     * @throws IOException If the file cannot be read or the response cannot be written
+     */
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // Write the head through Jersey, so the headers are sent
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, HEAD_SIZE));
+            while (head.hasRemaining())
+                if (channel.read(head) == -1)
+                    break;
+            output.write(head.array(), 0, head.position());
+            output.flush();
+
+            if (channel.position() >= size)
+                return;
+
+            // Send the rest directly from the file if possible, or copy it otherwise
+            if (servletOutput instanceof HttpOutput
+                    && ((HttpOutput) servletOutput).getHttpChannel().getResponse().isCommitted()) {
+                HttpOutput httpOutput = (HttpOutput) servletOutput;
+                long remaining = size - channel.position();
+                if (remaining <= Integer.MAX_VALUE)
+                    httpOutput.sendContent(channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), remaining));
+                else
+                    httpOutput.sendContent(channel);
+            } else {
+                head.clear();
+                while (channel.read(head) != -1) {
+                    output.write(head.array(), 0, head.position());
+                    head.clear();
+                }
+            }
+        }
+    }
+
+}
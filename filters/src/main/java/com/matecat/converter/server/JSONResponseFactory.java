@@ -1,12 +1,13 @@
 package com.matecat.converter.server;
 
+import net.sf.okapi.common.exceptions.OkapiEncryptedDataException;
+import net.sf.okapi.common.exceptions.OkapiUnexpectedRevisionException;
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.server.jobs.Job;
+import org.apache.commons.io.FilenameUtils;
 import org.json.simple.JSONObject;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.util.Base64;
 
 /**
  * Factory which creates JSON messages to use as http responses
@@ -20,6 +21,9 @@ public class JSONResponseFactory {
     public static final String XLIFF_CONTENT = "xliffContent";
     public static final String DOCUMENT_CONTENT = "documentContent";
     public static final String FILENAME = "filename";
+    public static final String INDEX = "index";
+    public static final String JOB_ID = "jobId";
+    public static final String STATUS = "status";
 
     public static String getError(String errorMessage) {
         JSONObject output = new JSONObject();
@@ -28,35 +32,68 @@ public class JSONResponseFactory {
         return output.toJSONString();
     }
 
-    public static String getConvertSuccess(File file) {
-        try {
-            String xliffContent = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
-            JSONObject output = new JSONObject();
-            output.put(IS_SUCCESS, true);
-            output.put(XLIFF_CONTENT, xliffContent);
-            output.put(FILENAME, file.getName());
-            return output.toJSONString();
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException();
-        }
+    public static String getSuccess() {
+        JSONObject output = new JSONObject();
+        output.put(IS_SUCCESS, true);
+        return output.toJSONString();
     }
 
-    public static String getDerivedSuccess(File file) {
-        try {
-            String encodedDocument = Base64.getEncoder().encodeToString(Files.readAllBytes(file.toPath()));
-            JSONObject output = new JSONObject();
-            output.put(IS_SUCCESS, true);
-            output.put(DOCUMENT_CONTENT, encodedDocument);
-            output.put(FILENAME, file.getName());
-            return output.toJSONString();
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException();
+    /**
+     * Get the message returned to the client for a failed conversion
+     */
+    public static String getErrorMessage(Exception e) {
+        if (e instanceof OkapiUnexpectedRevisionException) {
+            return "Document contains revisions or comments, please review and remove them.";
+        } else if (e instanceof OkapiEncryptedDataException) {
+            return "Document is password protected: can't access to contents.";
+        } else {
+            return e.getMessage();
         }
     }
 
+    /**
+     * Same as getError, to be written along with other streamed objects
+     */
+    public static JSONStreamingOutput getErrorOutput(String errorMessage) {
+        return new JSONStreamingOutput()
+                .put(IS_SUCCESS, false)
+                .put(ERROR_MESSAGE, errorMessage);
+    }
+
+    /**
+     * The XLIFF is escaped from the file while the response is written, without loading it into memory
+     */
+    public static JSONStreamingOutput getConvertSuccess(File file) {
+        return new JSONStreamingOutput()
+                .put(IS_SUCCESS, true)
+                .putFileContent(XLIFF_CONTENT, file)
+                .put(FILENAME, file.getName())
+                .measure(Metrics.getFormat(FilenameUtils.removeExtension(file.getName())), Metrics.ORIGINAL2XLIFF);
+    }
 
+    /**
+     * The document is encoded in base64 from the file while the response is written, without loading it into memory
+     */
+    public static JSONStreamingOutput getDerivedSuccess(File file) {
+        return new JSONStreamingOutput()
+                .put(IS_SUCCESS, true)
+                .putEncodedFileContent(DOCUMENT_CONTENT, file)
+                .put(FILENAME, file.getName())
+                .measure(Metrics.getFormat(file.getName()), Metrics.XLIFF2ORIGINAL);
+    }
 
+    /**
+     * Status of an asynchronous job, with the error message if it failed
+     */
+    public static String getJobStatus(Job job) {
+        JSONObject output = new JSONObject();
+        output.put(IS_SUCCESS, true);
+        output.put(JOB_ID, job.getId());
+        output.put(STATUS, job.getStatus().name());
+        output.put(FILENAME, job.getFile().getName());
+        if (job.getErrorMessage() != null)
+            output.put(ERROR_MESSAGE, job.getErrorMessage());
+        return output.toJSONString();
+    }
 
 }
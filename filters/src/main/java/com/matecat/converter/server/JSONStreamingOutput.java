@@ -0,0 +1,215 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.Format;
+import com.matecat.converter.core.metrics.Metrics;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming JSON object
+ *
+ * JSON object whose values can be the contents of a file, escaped as a JSON string or encoded in base64. The
+ * files are read while the response is written, in fixed-size chunks, so the memory used doesn't depend on
+ * their size. Strings are escaped exactly as json-simple does, so the output is the same as before.
+ */
+public class JSONStreamingOutput implements StreamingOutput {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+    private Format format;
+    private String direction;
+
+
+    /**
+     * Add a boolean field
+     * @param key Key
+     * @param value Value
+     * @return This object
+     */
+    public JSONStreamingOutput put(String key, boolean value) {
+        fields.put(key, value);
+        return this;
+    }
+
+
+    /**
+     * Add a number field
+     * @param key Key
+     * @param value Value
+     * @return This object
+     */
+    public JSONStreamingOutput put(String key, long value) {
+        fields.put(key, value);
+        return this;
+    }
+
+
+    /**
+     * Add a string field
+     * @param key Key
+     * @param value Value
+     * @return This object
+     */
+    public JSONStreamingOutput put(String key, String value) {
+        fields.put(key, value);
+        return this;
+    }
+
+
+    /**
+     * Add a string field with the UTF-8 contents of a file
+     * @param key Key
+     * @param file File
+     * @return This object
+     */
+    public JSONStreamingOutput putFileContent(String key, File file) {
+        fields.put(key, new FileContent(file, false));
+        return this;
+    }
+
+
+    /**
+     * Add a string field with the base64 encoded contents of a file
+     * @param key Key
+     * @param file File
+     * @return This object
+     */
+    public JSONStreamingOutput putEncodedFileContent(String key, File file) {
+        fields.put(key, new FileContent(file, true));
+        return this;
+    }
+
+
+    /**
+     * Record the time spent writing the object in the metrics
+     * @param format Format of the converted file (can be null)
+     * @param direction Direction of the conversion
+     * @return This object
+     */
+    public JSONStreamingOutput measure(Format format, String direction) {
+        this.format = format;
+        this.direction = direction;
+        return this;
+    }
+
+
+    /**
+     * Write the object into the output stream, without closing it
+     * @param output Output stream
+     * @throws IOException If a file cannot be read or the stream cannot be written
+     */
+    @Override
+    public void write(OutputStream output) throws IOException {
+        long start = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new CloseShieldOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!first)
+                writer.write(',');
+            first = false;
+            writeString(writer, field.getKey());
+            writer.write(':');
+
+            Object value = field.getValue();
+            if (value == null)
+                writer.write("null");
+            else if (value instanceof Boolean || value instanceof Number)
+                writer.write(value.toString());
+            else if (value instanceof FileContent)
+                writeFileContent(writer, output, (FileContent) value);
+            else
+                writeString(writer, value.toString());
+        }
+        writer.write('}');
+        writer.flush();
+        if (direction != null)
+            Metrics.observe(Metrics.JSON_SERIALIZATION, format, direction, start);
+    }
+
+
+    /**
+     * Write the contents of a file as a JSON string
+     */
+    private static void writeFileContent(Writer writer, OutputStream output, FileContent content) throws IOException {
+        writer.write('"');
+        if (content.encoded) {
+            // Base64 never needs to be escaped: write it straight into the stream
+            writer.flush();
+            try (OutputStream encoder = Base64.getEncoder().wrap(new CloseShieldOutputStream(output))) {
+                Files.copy(content.file.toPath(), encoder);
+            }
+        } else {
+            try (Reader reader = new InputStreamReader(new FileInputStream(content.file), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[BUFFER_SIZE];
+                int read;
+                while ((read = reader.read(buffer)) != -1)
+                    escape(writer, buffer, read);
+            }
+        }
+        writer.write('"');
+    }
+
+
+    /**
+     * Write a JSON string
+     */
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        escape(writer, value.toCharArray(), value.length());
+        writer.write('"');
+    }
+
+
+    /**
+     * Escape the characters as org.json.simple.JSONValue.escape does
+     */
+    private static void escape(Writer writer, char[] chars, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            char ch = chars[i];
+            switch (ch) {
+                case '"': writer.write("\\\""); break;
+                case '\\': writer.write("\\\\"); break;
+                case '\b': writer.write("\\b"); break;
+                case '\f': writer.write("\\f"); break;
+                case '\n': writer.write("\\n"); break;
+                case '\r': writer.write("\\r"); break;
+                case '\t': writer.write("\\t"); break;
+                case '/': writer.write("\\/"); break;
+                default:
+                    if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                        String hex = Integer.toHexString(ch).toUpperCase();
+                        writer.write("\\u");
+                        for (int k = hex.length(); k < 4; k++)
+                            writer.write('0');
+                        writer.write(hex);
+                    } else {
+                        writer.write(ch);
+                    }
+            }
+        }
+    }
+
+
+    /**
+     * Contents of a file to be written as a JSON string
+     */
+    private static class FileContent {
+        private final File file;
+        private final boolean encoded;
+
+        private FileContent(File file, boolean encoded) {
+            this.file = file;
+            this.encoded = encoded;
+        }
+    }
+
+}
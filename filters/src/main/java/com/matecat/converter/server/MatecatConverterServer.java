@@ -1,13 +1,26 @@
 package com.matecat.converter.server;
 
+import com.matecat.converter.core.okapiclient.OkapiFilterFactory;
+import com.matecat.converter.core.okapiclient.SrxRulesCache;
 import com.matecat.converter.core.util.Config;
+import com.matecat.converter.okapi.steps.segmentation.BreakIteratorCache;
+import com.matecat.converter.server.jobs.JobManager;
+import com.matecat.converter.server.resources.BatchConvertToXliffResource;
+import com.matecat.converter.server.resources.BatchGenerateDerivedFileResource;
 import com.matecat.converter.server.resources.ConvertToXliffResource;
+import com.matecat.converter.server.resources.DrainResource;
 import com.matecat.converter.server.resources.ExtractOriginalFileResource;
 import com.matecat.converter.server.resources.GenerateDerivedFileResource;
+import com.matecat.converter.server.resources.JobsResource;
+import com.matecat.converter.server.resources.MetricsResource;
+import com.matecat.converter.server.resources.ReadinessResource;
+import com.matecat.converter.server.resources.StatusResource;
 import com.matecat.converter.server.resources.TestConnectionResource;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -16,11 +29,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -31,11 +46,18 @@ public class MatecatConverterServer {
     // Logger
     private static final Logger LOGGER = LoggerFactory.getLogger(MatecatConverterServer.class);
 
+    // Milliseconds given to Jetty to write the last responses once the conversions have been drained
+    private static final long STOP_TIMEOUT = 30_000;
+
     // Used port
     private int serverPort;
 
     // Server
     private Server server;
+    private StatisticsHandler statisticsHandler;
+    private ConversionExecutor conversionExecutor;
+    private JobManager jobManager;
+    private boolean drained = false;
     private String localIP, externalIP;
 
 
@@ -70,13 +92,62 @@ public class MatecatConverterServer {
 
     /**
      * Stop the server
+     *
+     * The server is drained first: the running conversions can end, up to the configured drain timeout, and
+     * their responses are sent before stopping.
      */
     public void stop() {
+        drain();
         try {
             server.stop();
         } catch (Exception e) {
             LOGGER.error("It was not possible to stop the server", e);
         }
+        conversionExecutor.shutdown();
+    }
+
+
+    /**
+     * Drain the server
+     *
+     * New conversions and jobs are rejected, and the server stops being ready, while the accepted conversions run
+     * until they end or the drain timeout expires; then the remaining ones are cancelled. The projects of the
+     * conversions are closed as their responses are sent. Draining an already drained server has no effect.
+     */
+    public synchronized void drain() {
+        if (drained)
+            return;
+        LOGGER.info("Draining the server: {} running and {} waiting conversions",
+                conversionExecutor.getActiveCount(), conversionExecutor.getQueuedCount());
+        jobManager.shutdown();
+        try {
+            if (conversionExecutor.drain(TimeUnit.SECONDS.toMillis(Config.drainTimeout)))
+                LOGGER.info("Server drained");
+            else
+                LOGGER.warn("Server drained after cancelling the conversions still running");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Drain interrupted");
+        }
+        drained = true;
+    }
+
+
+    /**
+     * Check if the server is ready to receive conversions
+     * @return True if started, not draining, and with enough resources
+     */
+    public boolean isReady() {
+        return server.isStarted() && getStatus().getNotReadyReason() == null;
+    }
+
+
+    /**
+     * Get the current load and resources of the server
+     * @return Status snapshot
+     */
+    public ServerStatus getStatus() {
+        return new ServerStatus(conversionExecutor, jobManager, statisticsHandler.getRequestsActive());
     }
 
 
@@ -157,23 +228,58 @@ public class MatecatConverterServer {
      */
     private void initServer() {
 
+        // Parse the filters configurations and the segmentation rules before the first conversion
+        OkapiFilterFactory.prewarm();
+        SrxRulesCache.prewarm();
+        BreakIteratorCache.prewarm();
+
+        // Executor running the conversions, out of the server's request threads
+        this.conversionExecutor = new ConversionExecutor(Config.conversionThreads, Config.conversionQueueSize,
+                Config.conversionFormatLimits, Config.conversionRetryAfter, Config.conversionTimeout);
+
+        // Asynchronous jobs, saved in the cache folder so they survive restarts
+        this.jobManager = new JobManager(conversionExecutor, new File(Config.cacheFolder, "jobs"),
+                Config.jobQueueSize, Config.jobExpiration, Config.conversionRetryAfter);
+
         // Configure the server
         ResourceConfig resourceConfig = new ResourceConfig();
         resourceConfig.packages(ConvertToXliffResource.class.getPackage().getName());
         resourceConfig.packages(GenerateDerivedFileResource.class.getPackage().getName());
         resourceConfig.packages(ExtractOriginalFileResource.class.getPackage().getName());
+        resourceConfig.packages(BatchConvertToXliffResource.class.getPackage().getName());
+        resourceConfig.packages(BatchGenerateDerivedFileResource.class.getPackage().getName());
+        resourceConfig.packages(JobsResource.class.getPackage().getName());
+        resourceConfig.packages(MetricsResource.class.getPackage().getName());
+        resourceConfig.packages(ReadinessResource.class.getPackage().getName());
+        resourceConfig.packages(DrainResource.class.getPackage().getName());
+        resourceConfig.packages(StatusResource.class.getPackage().getName());
         resourceConfig.packages(TestConnectionResource.class.getPackage().getName());
         resourceConfig.register(JacksonFeature.class);
         resourceConfig.register(MultiPartFeature.class);
+        resourceConfig.register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(conversionExecutor).to(ConversionExecutor.class);
+                bind(jobManager).to(JobManager.class);
+                bind(MatecatConverterServer.this).to(MatecatConverterServer.class);
+            }
+        });
         ServletContainer servletContainer = new ServletContainer(resourceConfig);
         ServletHolder sh = new ServletHolder(servletContainer);
+        sh.setAsyncSupported(true);
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
         context.addServlet(sh, "/*");
 
+        // Keep track of the requests in progress, so stopping waits for their responses
+        this.statisticsHandler = new StatisticsHandler();
+        statisticsHandler.setHandler(context);
+
         // Initiate it
         this.server = new Server(serverPort);
-        server.setHandler(context);
+        server.setHandler(statisticsHandler);
+        server.setStopTimeout(STOP_TIMEOUT);
+        server.setRequestLog(new MetricsRequestLog());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.metrics.Metrics;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Request log counting the bytes received and sent by every request
+ *
+ * Jetty calls it once the response is complete, also for the asynchronous requests, so the counts include the
+ * whole upload and the whole streamed response.
+ */
+public class MetricsRequestLog implements RequestLog {
+
+    @Override
+    public void log(Request request, Response response) {
+        Metrics.countBytes(getDirection(request.getRequestURI()),
+                request.getHttpInput().getContentConsumed(),
+                response.getHttpChannel().getBytesWritten());
+    }
+
+
+    /**
+     * Get the direction of the conversion requested to an endpoint
+     */
+    private static String getDirection(String path) {
+        if (path == null)
+            return Metrics.OTHER;
+        if (path.endsWith("/" + Metrics.ORIGINAL2XLIFF))
+            return Metrics.ORIGINAL2XLIFF;
+        if (path.endsWith("/" + Metrics.XLIFF2ORIGINAL))
+            return Metrics.XLIFF2ORIGINAL;
+        if (path.endsWith("/" + Metrics.XLIFF2SOURCE))
+            return Metrics.XLIFF2SOURCE;
+        return Metrics.OTHER;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.matecat.converter.server;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Factory which creates raw http responses, containing the converted file as-is instead of a JSON message
+ *
+ * A client asks for a raw response preferring application/octet-stream or application/xliff+xml to
+ * application/json in the Accept header. The JSON fields are then sent as headers:
+ * - the success as the status code
+ * - the filename in the Content-Disposition header
+ * Errors are always JSON messages.
+ */
+public class RawResponseFactory {
+
+    public static final String APPLICATION_XLIFF_XML = "application/xliff+xml";
+    public static final MediaType APPLICATION_XLIFF_XML_TYPE = MediaType.valueOf(APPLICATION_XLIFF_XML);
+
+    private RawResponseFactory() {}
+
+
+    /**
+     * Get the raw type preferred by the client
+     * @param headers Request headers
+     * @return The raw type, or null if the client prefers a JSON response
+     */
+    public static MediaType getRawType(HttpHeaders headers) {
+        for (MediaType type : headers.getAcceptableMediaTypes()) {
+            if (type.isWildcardType() || type.isCompatible(MediaType.APPLICATION_JSON_TYPE))
+                return null;
+            if (type.isCompatible(MediaType.APPLICATION_OCTET_STREAM_TYPE) && !type.isWildcardSubtype())
+                return MediaType.APPLICATION_OCTET_STREAM_TYPE;
+            if (type.isCompatible(APPLICATION_XLIFF_XML_TYPE) && !type.isWildcardSubtype())
+                return APPLICATION_XLIFF_XML_TYPE;
+        }
+        return null;
+    }
+
+
+    /**
+     * Build a successful raw response
+     * @param file File to send
+     * @param type Raw type
+     * @param servletOutput Output stream of the servlet response, used to send the file without copying it
+     * @return Response streaming the file
+     */
+    public static Response getSuccess(File file, MediaType type, OutputStream servletOutput) {
+        return Response
+                .status(Response.Status.OK)
+                .type(type)
+                .header(HttpHeaders.CONTENT_LENGTH, file.length())
+                .header("Content-Disposition", getContentDisposition(file.getName()))
+                .entity(new FileStreamingOutput(file, servletOutput))
+                .build();
+    }
+
+
+    /**
+     * Build the Content-Disposition header, with the filename both in ASCII and in UTF-8 (RFC 6266)
+     */
+    private static String getContentDisposition(String filename) {
+        String asciiFilename = filename.replaceAll("[^\\x20-\\x7E]", "_").replace("\\", "_").replace("\"", "_");
+        try {
+            String encodedFilename = URLEncoder.encode(filename, "UTF-8").replace("+", "%20");
+            return "attachment; filename=\"" + asciiFilename + "\"; filename*=UTF-8''" + encodedFilename;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
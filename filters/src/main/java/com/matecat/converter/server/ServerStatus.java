@@ -0,0 +1,126 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.util.Config;
+import com.matecat.converter.core.winconverter.WinConverterRouter;
+import com.matecat.converter.server.jobs.JobManager;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+
+/**
+ * Snapshot of the load and the resources of the server
+ *
+ * It tells whether the server can take more conversions, so load balancers can route by the actual load and take
+ * the server out when it's draining or its disk is full. The WinConverter instances are only reported: without them
+ * the server still converts all the other formats.
+ */
+public class ServerStatus {
+
+    private final boolean draining;
+    private final int activeRequests;
+    private final int threads;
+    private final int runningConversions;
+    private final int queuedConversions;
+    private final int queuedJobs;
+    private final long freeSpace;
+    private final long totalSpace;
+    private final long heapUsed;
+    private final long heapMax;
+    private final WinConverterRouter.PoolStatus winConverters;
+
+
+    /**
+     * Take the snapshot
+     * @param executor Conversion executor
+     * @param jobManager Jobs manager
+     * @param activeRequests Requests in progress
+     */
+    public ServerStatus(ConversionExecutor executor, JobManager jobManager, int activeRequests) {
+        this.draining = executor.isDraining();
+        this.activeRequests = activeRequests;
+        this.threads = executor.getThreads();
+        this.runningConversions = executor.getActiveCount();
+        this.queuedConversions = executor.getQueuedCount();
+        this.queuedJobs = jobManager.getQueuedCount();
+
+        File cacheFolder = new File(Config.cacheFolder);
+        this.freeSpace = cacheFolder.getUsableSpace();
+        this.totalSpace = cacheFolder.getTotalSpace();
+
+        Runtime runtime = Runtime.getRuntime();
+        this.heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        this.heapMax = runtime.maxMemory();
+
+        this.winConverters = (Config.winConvEnabled ? WinConverterRouter.getPoolStatus() : null);
+    }
+
+
+    /**
+     * Get the reason why the server shouldn't receive conversions
+     * @return Reason, or null if the server is ready
+     */
+    public String getNotReadyReason() {
+        if (draining)
+            return "Draining";
+        if (freeSpace < Config.minFreeSpace)
+            return "Not enough free space in the cache folder";
+        return null;
+    }
+
+
+    /**
+     * Get the status as JSON
+     * @return JSON object
+     */
+    public String toJSONString() {
+        JSONObject output = new JSONObject();
+        String notReadyReason = getNotReadyReason();
+        output.put("ready", notReadyReason == null);
+        if (notReadyReason != null)
+            output.put("reason", notReadyReason);
+
+        JSONObject conversions = new JSONObject();
+        conversions.put("activeRequests", activeRequests);
+        conversions.put("threads", threads);
+        conversions.put("running", runningConversions);
+        conversions.put("queued", queuedConversions);
+        conversions.put("queuedJobs", queuedJobs);
+        output.put("conversions", conversions);
+
+        JSONObject disk = new JSONObject();
+        disk.put("freeBytes", freeSpace);
+        disk.put("totalBytes", totalSpace);
+        output.put("cacheFolder", disk);
+
+        JSONObject heap = new JSONObject();
+        heap.put("usedBytes", heapUsed);
+        heap.put("maxBytes", heapMax);
+        heap.put("headroomBytes", heapMax - heapUsed);
+        output.put("heap", heap);
+
+        JSONObject converters = new JSONObject();
+        converters.put("enabled", winConverters != null);
+        if (winConverters != null) {
+            converters.put("registered", winConverters.registered);
+            converters.put("healthy", winConverters.healthy);
+            converters.put("ocr", winConverters.ocr);
+        }
+        output.put("winConverters", converters);
+
+        JSONObject caches = new JSONObject();
+        for (String cache : Metrics.getCaches()) {
+            long hits = Metrics.getCacheHits(cache);
+            long lookups = hits + Metrics.getCacheMisses(cache);
+            JSONObject stats = new JSONObject();
+            stats.put("hits", hits);
+            stats.put("lookups", lookups);
+            stats.put("hitRate", (lookups == 0 ? 0.0 : hits / (double) lookups));
+            caches.put(cache, stats);
+        }
+        output.put("caches", caches);
+
+        return output.toJSONString();
+    }
+
+}
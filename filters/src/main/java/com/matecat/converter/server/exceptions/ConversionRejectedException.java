@@ -0,0 +1,27 @@
+package com.matecat.converter.server.exceptions;
+
+/**
+ * Exception thrown when the server is too busy to accept a new conversion
+ */
+public class ConversionRejectedException extends ServerException {
+
+    private final int retryAfter;
+
+    /**
+     * Call the super constructor, passing a message
+     * @param msg Message
+     * @param retryAfter Seconds the client should wait before retrying
+     */
+    public ConversionRejectedException(String msg, int retryAfter) {
+        super(msg);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Get the seconds the client should wait before retrying
+     * @return Seconds to wait
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
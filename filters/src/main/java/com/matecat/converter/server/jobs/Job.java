@@ -0,0 +1,194 @@
+package com.matecat.converter.server.jobs;
+
+import com.matecat.converter.core.project.Project;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * Asynchronous conversion job
+ *
+ * A job converts the file of its project, like the synchronous endpoints do, and keeps the project until its result
+ * is fetched or expires. Everything needed to run the job again is stored with it, so the job survives restarts.
+ */
+public class Job {
+
+    /**
+     * Conversion performed by the job
+     */
+    public enum Type {
+        ORIGINAL2XLIFF,
+        XLIFF2ORIGINAL
+    }
+
+    /**
+     * Job status
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED;
+
+        /**
+         * Check if the job is over
+         * @return True if the job won't run anymore
+         */
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final Type type;
+    private final File file;
+    private final String sourceLanguage;
+    private final String targetLanguage;
+    private final String segmentation;
+    private final long created;
+    private Status status;
+    private File result;
+    private String errorMessage;
+    private long finished;
+    private Project project;
+
+
+    /**
+     * Constructor
+     * @param id Job identifier
+     * @param type Conversion performed
+     * @param file File to convert, inside the job's project
+     * @param sourceLanguage Source language tag (only for ORIGINAL2XLIFF jobs)
+     * @param targetLanguage Target language tag (only for ORIGINAL2XLIFF jobs)
+     * @param segmentation Segmentation name (can be null)
+     * @param created Creation time in milliseconds
+     */
+    Job(String id, Type type, File file, String sourceLanguage, String targetLanguage, String segmentation, long created) {
+        this.id = id;
+        this.type = type;
+        this.file = file;
+        this.sourceLanguage = sourceLanguage;
+        this.targetLanguage = targetLanguage;
+        this.segmentation = segmentation;
+        this.created = created;
+        this.status = Status.QUEUED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getSourceLanguage() {
+        return sourceLanguage;
+    }
+
+    public String getTargetLanguage() {
+        return targetLanguage;
+    }
+
+    public String getSegmentation() {
+        return segmentation;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized File getResult() {
+        return result;
+    }
+
+    public synchronized String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    Project getProject() {
+        return project;
+    }
+
+    void setProject(Project project) {
+        this.project = project;
+    }
+
+    synchronized void setStatus(Status status) {
+        this.status = status;
+        if (status.isFinished() && finished == 0)
+            finished = System.currentTimeMillis();
+    }
+
+    synchronized void setResult(File result) {
+        this.result = result;
+    }
+
+    synchronized void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+
+    /**
+     * Serialize the job
+     * @return Properties describing the job
+     */
+    synchronized Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("id", id);
+        props.setProperty("type", type.name());
+        props.setProperty("file", file.getPath());
+        setIfNotNull(props, "source-language", sourceLanguage);
+        setIfNotNull(props, "target-language", targetLanguage);
+        setIfNotNull(props, "segmentation", segmentation);
+        props.setProperty("created", Long.toString(created));
+        props.setProperty("status", status.name());
+        setIfNotNull(props, "result", (result == null ? null : result.getPath()));
+        setIfNotNull(props, "error-message", errorMessage);
+        props.setProperty("finished", Long.toString(finished));
+        return props;
+    }
+
+
+    /**
+     * Deserialize a job
+     * @param props Properties describing the job, as returned by toProperties
+     * @return Job
+     */
+    static Job fromProperties(Properties props) {
+        Job job = new Job(
+                props.getProperty("id"),
+                Type.valueOf(props.getProperty("type")),
+                new File(props.getProperty("file")),
+                props.getProperty("source-language"),
+                props.getProperty("target-language"),
+                props.getProperty("segmentation"),
+                Long.parseLong(props.getProperty("created")));
+        job.status = Status.valueOf(props.getProperty("status"));
+        String result = props.getProperty("result");
+        job.result = (result == null ? null : new File(result));
+        job.errorMessage = props.getProperty("error-message");
+        job.finished = Long.parseLong(props.getProperty("finished", "0"));
+        return job;
+    }
+
+
+    private static void setIfNotNull(Properties props, String key, String value) {
+        if (value != null)
+            props.setProperty(key, value);
+    }
+
+}
@@ -0,0 +1,369 @@
+package com.matecat.converter.server.jobs;
+
+import com.matecat.converter.core.Format;
+import com.matecat.converter.core.XliffProcessor;
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.project.Project;
+import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.ConversionExecutor;
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import com.matecat.filters.basefilters.FiltersRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous jobs manager
+ *
+ * Jobs are queued here and run on the conversion executor, at most as many at the same time as executor threads,
+ * so they never fill the queue of the synchronous requests. If the executor rejects a job, it stays queued and is
+ * retried later. Every change of a job is saved in the job store: when the server starts, the jobs which were queued
+ * or running are queued again, and the finished ones can still be fetched.
+ *
+ * The project of a job is kept until its result is fetched, the job is deleted, or it expires. Okapi doesn't stop
+ * when interrupted, so the project of a job deleted while converting is closed only once the conversion has ended.
+ */
+public class JobManager {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(JobManager.class);
+
+    private final ConversionExecutor executor;
+    private final JobStore store;
+    private final int maxQueued;
+    private final long expiration;
+    private final int retryAfter;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> futures = new ConcurrentHashMap<>();
+    private final Deque<Job> queue = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler;
+    private int running = 0;
+    // Jobs whose conversion is executing right now, even if cancelled
+    private final Set<String> converting = new HashSet<>();
+    private volatile boolean stopped = false;
+
+
+    /**
+     * Constructor, resuming the jobs saved in the folder
+     * @param executor Executor running the conversions
+     * @param folder Folder where the jobs are saved
+     * @param maxQueued Maximum number of jobs waiting to run
+     * @param expiration Seconds a finished job is kept before being deleted
+     * @param retryAfter Seconds the client should wait before retrying a rejected job
+     */
+    public JobManager(ConversionExecutor executor, File folder, int maxQueued, int expiration, int retryAfter) {
+        this.executor = executor;
+        this.store = new JobStore(folder);
+        this.maxQueued = maxQueued;
+        this.expiration = TimeUnit.SECONDS.toMillis(expiration);
+        this.retryAfter = retryAfter;
+
+        resume();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::dispatch, 1, 1, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+
+        LOGGER.info("Job manager ready: {} jobs resumed, {} queued", jobs.size(), queue.size());
+    }
+
+
+    /**
+     * Load the saved jobs, queueing again the ones which didn't finish
+     */
+    private void resume() {
+        List<Job> saved = store.loadAll();
+        saved.sort(Comparator.comparingLong(Job::getCreated));
+        for (Job job : saved) {
+            try {
+                job.setProject(ProjectFactory.openProject(job.getFile()));
+            } catch (Exception e) {
+                if (job.getStatus().isFinished()) {
+                    // Nothing left to return
+                    store.delete(job);
+                    continue;
+                }
+                job.setErrorMessage(e.getMessage());
+                job.setStatus(Job.Status.FAILED);
+            }
+            if (!job.getStatus().isFinished()) {
+                job.setStatus(Job.Status.QUEUED);
+                queue.add(job);
+            }
+            store.save(job);
+            jobs.put(job.getId(), job);
+        }
+    }
+
+
+    /**
+     * Queue a new job
+     * @param type Conversion to perform
+     * @param project Project of the file to convert, owned by the job from now on
+     * @param sourceLanguage Source language (only for ORIGINAL2XLIFF jobs)
+     * @param targetLanguage Target language (only for ORIGINAL2XLIFF jobs)
+     * @param segmentation Segmentation name (can be null)
+     * @return Queued job
+     * @throws ConversionRejectedException If there are too many queued jobs
+     */
+    public Job submit(Job.Type type, Project project, Locale sourceLanguage, Locale targetLanguage, String segmentation)
+            throws ConversionRejectedException {
+        Job job = new Job(UUID.randomUUID().toString(), type, project.getFile(),
+                (sourceLanguage == null ? null : sourceLanguage.toLanguageTag()),
+                (targetLanguage == null ? null : targetLanguage.toLanguageTag()),
+                segmentation, System.currentTimeMillis());
+        job.setProject(project);
+
+        synchronized (this) {
+            if (stopped)
+                throw new ConversionRejectedException("The server is shutting down, retry later", retryAfter);
+            if (queue.size() >= maxQueued) {
+                LOGGER.warn("Rejecting {} job: job queue is full", type);
+                throw new ConversionRejectedException("Too many queued jobs, retry later", retryAfter);
+            }
+            store.save(job);
+            jobs.put(job.getId(), job);
+            queue.add(job);
+        }
+        LOGGER.info("Job {} queued: {} {}", job.getId(), type, project.getFile().getName());
+
+        dispatch();
+        return job;
+    }
+
+
+    /**
+     * Get a job
+     * @param id Job identifier
+     * @return Job, or null if it doesn't exist
+     */
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+
+    /**
+     * Delete a job, cancelling it if it hasn't finished
+     * @param id Job identifier
+     * @return True if the job existed
+     */
+    public boolean delete(String id) {
+        Job job = jobs.get(id);
+        if (job == null)
+            return false;
+        synchronized (this) {
+            queue.remove(job);
+        }
+        synchronized (job) {
+            if (!job.getStatus().isFinished())
+                job.setStatus(Job.Status.CANCELLED);
+        }
+        Future<?> future = futures.get(id);
+        if (future != null)
+            future.cancel(true);
+        remove(job);
+        LOGGER.info("Job {} deleted", id);
+        return true;
+    }
+
+
+    /**
+     * Release a job once its result has been returned, deleting it along with its files
+     * @param job Fetched job
+     */
+    public void release(Job job) {
+        remove(job);
+    }
+
+
+    /**
+     * Stop submitting jobs
+     *
+     * New jobs are rejected and the queued ones stay saved, while the running ones can still finish. If they are
+     * interrupted along with the executor, they keep their saved state, so they are queued again the next time the
+     * server starts.
+     */
+    public void shutdown() {
+        stopped = true;
+        scheduler.shutdownNow();
+    }
+
+
+    /**
+     * Get the number of jobs waiting to run
+     * @return Queued jobs
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+
+    /**
+     * Submit the queued jobs to the executor, up to the number of executor threads
+     */
+    private synchronized void dispatch() {
+        while (!stopped && running < executor.getThreads() && !queue.isEmpty()) {
+            Job job = queue.peek();
+            Format format;
+            try {
+                format = (job.getType() == Job.Type.ORIGINAL2XLIFF ?
+                        Metrics.getFormat(job.getFile().getName()) :
+                        new XliffProcessor(job.getFile()).getOriginalFormat());
+            } catch (Exception e) {
+                queue.poll();
+                fail(job, e);
+                continue;
+            }
+            // Registered before the conversion can start, and under the lock done() needs, so a deletion sees it
+            // as converting and the future is stored before done() removes it
+            converting.add(job.getId());
+            try {
+                futures.put(job.getId(), executor.submit(format, () -> {
+                    run(job);
+                    return null;
+                }, () -> done(job)));
+            } catch (ConversionRejectedException e) {
+                converting.remove(job.getId());
+                // Retried later by the scheduler, or when another job ends
+                return;
+            }
+            queue.poll();
+            running++;
+        }
+    }
+
+
+    /**
+     * Run a job
+     */
+    private void run(Job job) {
+        try {
+            synchronized (job) {
+                if (job.getStatus() != Job.Status.QUEUED)
+                    return;
+                job.setStatus(Job.Status.RUNNING);
+                store.save(job);
+            }
+
+            File result = (job.getType() == Job.Type.ORIGINAL2XLIFF ?
+                    new FiltersRouter().extract(job.getFile(),
+                            Locale.forLanguageTag(job.getSourceLanguage()),
+                            Locale.forLanguageTag(job.getTargetLanguage()),
+                            job.getSegmentation()) :
+                    new FiltersRouter().merge(job.getFile()));
+            synchronized (job) {
+                if (job.getStatus() != Job.Status.RUNNING)
+                    return;
+                job.setResult(result);
+                job.setStatus(Job.Status.DONE);
+                store.save(job);
+            }
+            LOGGER.info("Job {} done", job.getId());
+        } catch (Exception e) {
+            // Interrupted by the shutdown: keep it as running, so it is queued again at the next start
+            if (stopped)
+                return;
+            fail(job, e);
+        }
+    }
+
+
+    /**
+     * Mark a job as failed
+     */
+    private void fail(Job job, Exception e) {
+        String errorMessage = JSONResponseFactory.getErrorMessage(e);
+        synchronized (job) {
+            if (job.getStatus().isFinished())
+                return;
+            job.setErrorMessage(errorMessage);
+            job.setStatus(Job.Status.FAILED);
+            store.save(job);
+        }
+        LOGGER.error("Job {} failed: {}", job.getId(), errorMessage, e);
+    }
+
+
+    /**
+     * Once the conversion of a job has really ended, or was cancelled before starting, and its executor permit has
+     * been released: close the project if the job was deleted meanwhile, and dispatch the next queued jobs
+     */
+    private void done(Job job) {
+        boolean removed;
+        synchronized (this) {
+            futures.remove(job.getId());
+            converting.remove(job.getId());
+            removed = !jobs.containsKey(job.getId());
+            running--;
+        }
+        if (removed)
+            closeProject(job);
+        dispatch();
+    }
+
+
+    /**
+     * Delete a job and its files
+     */
+    private void remove(Job job) {
+        boolean active;
+        synchronized (this) {
+            if (jobs.remove(job.getId()) == null)
+                return;
+            active = converting.contains(job.getId());
+        }
+        store.delete(job);
+        // Still used by the conversion: closed when it ends
+        if (!active)
+            closeProject(job);
+    }
+
+
+    /**
+     * Close the project of a removed job
+     */
+    private void closeProject(Job job) {
+        Project project = job.getProject();
+        if (project != null)
+            // Keep the files only if the conversion failed
+            project.close(job.getStatus() != Job.Status.FAILED);
+    }
+
+
+    /**
+     * Delete the finished jobs which haven't been fetched in time
+     */
+    private void expire() {
+        long limit = System.currentTimeMillis() - expiration;
+        List<Job> expired = new ArrayList<>();
+        for (Job job : jobs.values())
+            if (job.getStatus().isFinished() && job.getFinished() < limit)
+                expired.add(job);
+        for (Job job : expired) {
+            LOGGER.info("Job {} expired", job.getId());
+            remove(job);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.matecat.converter.server.jobs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * On-disk store of the jobs
+ *
+ * Every job is saved in its own properties file. The file is written aside and then atomically moved in place, so
+ * a crash never leaves a half-written job behind.
+ */
+public class JobStore {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(JobStore.class);
+
+    private static final String EXTENSION = ".properties";
+
+    private final File folder;
+
+
+    /**
+     * Constructor
+     * @param folder Folder where the jobs are saved, created if needed
+     */
+    public JobStore(File folder) {
+        if (!folder.isDirectory() && !folder.mkdirs())
+            throw new RuntimeException("It was not possible to create the jobs folder " + folder.getPath());
+        this.folder = folder;
+    }
+
+
+    /**
+     * Save a job, replacing its previous state
+     * @param job Job to save
+     */
+    public void save(Job job) {
+        File file = new File(folder, job.getId() + EXTENSION);
+        File tmp = new File(folder, job.getId() + EXTENSION + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(tmp.toPath())) {
+                job.toProperties().store(output, null);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("It was not possible to save the job " + job.getId(), e);
+        }
+    }
+
+
+    /**
+     * Delete a job
+     * @param job Job to delete
+     */
+    public void delete(Job job) {
+        try {
+            Files.deleteIfExists(new File(folder, job.getId() + EXTENSION).toPath());
+        } catch (IOException e) {
+            LOGGER.warn("It was not possible to delete the job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+
+
+    /**
+     * Load all the saved jobs, skipping (and removing) the unreadable ones
+     * @return Saved jobs
+     */
+    public List<Job> loadAll() {
+        List<Job> jobs = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if (files == null)
+            return jobs;
+        for (File file : files) {
+            if (file.getName().endsWith(EXTENSION + ".tmp")) {
+                // Left by a crash while saving, the previous state is still there
+                file.delete();
+                continue;
+            }
+            if (!file.getName().endsWith(EXTENSION))
+                continue;
+            try (InputStream input = Files.newInputStream(file.toPath())) {
+                Properties props = new Properties();
+                props.load(input);
+                jobs.add(Job.fromProperties(props));
+            } catch (Exception e) {
+                LOGGER.warn("Discarding unreadable job {}: {}", file.getName(), e.getMessage());
+                file.delete();
+            }
+        }
+        return jobs;
+    }
+
+}
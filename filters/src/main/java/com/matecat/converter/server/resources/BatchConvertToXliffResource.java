@@ -0,0 +1,118 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.project.Project;
+import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.BatchConversion;
+import com.matecat.converter.server.ConversionExecutor;
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import com.matecat.filters.basefilters.FiltersRouter;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Resource taking care of the conversion of many files into .XLF in a single request
+ */
+@Path("/AutomationService/batch/original2xliff")
+public class BatchConvertToXliffResource {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(BatchConvertToXliffResource.class);
+
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
+    /**
+     * Convert many files into XLF
+     *
+     * Every 'documentContent' part is a file to convert, and the optional 'fileName' parts override their
+     * filenames in the same order. The files are converted in parallel, and the result of each one is streamed as
+     * soon as it's ready: one JSON object per line, the same returned by original2xliff plus the index of the file.
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(BatchConversion.APPLICATION_NDJSON)
+    public Response convert(
+            @FormDataParam("documentContent") List<FormDataBodyPart> fileParts,
+            @FormDataParam("fileName") List<String> filenames,
+            @FormDataParam("sourceLocale") String sourceLanguageCode,
+            @FormDataParam("targetLocale") String targetLanguageCode,
+            @FormDataParam("segmentation") String segmentation) {
+
+        LOGGER.info("SOURCE > XLIFF batch request: files=<{}> source=<{}> target=<{}>",
+                (fileParts == null ? 0 : fileParts.size()), sourceLanguageCode, targetLanguageCode);
+
+        try {
+
+            // Check that the input files are not empty
+            if (fileParts == null || fileParts.isEmpty())
+                throw new IllegalArgumentException("The input files have not been sent");
+
+            // Parse the codes
+            Locale sourceLanguage = ConvertToXliffResource.parseLanguage(sourceLanguageCode);
+            Locale targetLanguage = ConvertToXliffResource.parseLanguage(targetLanguageCode);
+
+            // Create a project for every file
+            BatchConversion batch = new BatchConversion(conversionExecutor, JSONResponseFactory::getErrorMessage);
+            for (int i = 0; i < fileParts.size(); i++) {
+                FormDataBodyPart filePart = fileParts.get(i);
+                String filename = ConvertToXliffResource.getFilename(
+                        (filenames != null && i < filenames.size() ? filenames.get(i) : null),
+                        filePart.getFormDataContentDisposition());
+
+                Project project = null;
+                try (InputStream fileInputStream = filePart.getValueAs(InputStream.class)) {
+                    project = ProjectFactory.createProject(filename, fileInputStream);
+                    final File sourceFile = project.getFile();
+                    batch.add(filename, project, Metrics.getFormat(sourceFile.getName()), () -> JSONResponseFactory.getConvertSuccess(
+                            new FiltersRouter().extract(sourceFile, sourceLanguage, targetLanguage, segmentation)));
+                } catch (Exception e) {
+                    batch.addError(filename, project, e);
+                }
+            }
+
+            // Start converting, the response is written while the files are converted
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(batch.start())
+                    .build();
+        }
+
+        // If the server is too busy, ask to retry later
+        catch (ConversionRejectedException e) {
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", e.getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build();
+        }
+
+        // If there is any error, return it
+        catch (Exception e) {
+            LOGGER.error("Exception converting batch to XLIFF", e);
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build();
+        }
+    }
+
+}
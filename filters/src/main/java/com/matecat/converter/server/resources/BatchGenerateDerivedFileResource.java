@@ -0,0 +1,105 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.core.XliffProcessor;
+import com.matecat.converter.core.project.Project;
+import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.BatchConversion;
+import com.matecat.converter.server.ConversionExecutor;
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import com.matecat.filters.basefilters.FiltersRouter;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.List;
+
+
+/**
+ * Resource taking care of the generation of many new files from their .XLF in a single request
+ */
+@Path("/AutomationService/batch/xliff2original")
+public class BatchGenerateDerivedFileResource {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(BatchGenerateDerivedFileResource.class);
+
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
+    /**
+     * Generate the derived files from many xlf
+     *
+     * Every 'xliffContent' part is a xlf to convert. The files are generated in parallel, and the result of each
+     * one is streamed as soon as it's ready: one JSON object per line, the same returned by xliff2original plus
+     * the index of the xlf.
+     */
+    @POST
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(BatchConversion.APPLICATION_NDJSON)
+    public Response convert(
+            @FormDataParam("xliffContent") List<FormDataBodyPart> fileParts) {
+
+        LOGGER.info("XLIFF > TARGET batch request: files=<{}>", (fileParts == null ? 0 : fileParts.size()));
+
+        try {
+
+            // Check that the input files are not empty
+            if (fileParts == null || fileParts.isEmpty())
+                throw new IllegalArgumentException("The input files have not been sent");
+
+            // Create a project for every xlf
+            BatchConversion batch = new BatchConversion(conversionExecutor, Exception::getMessage);
+            for (int i = 0; i < fileParts.size(); i++) {
+                FormDataBodyPart filePart = fileParts.get(i);
+                String filename = filePart.getFormDataContentDisposition().getFileName();
+
+                Project project = null;
+                try (InputStream fileInputStream = filePart.getValueAs(InputStream.class)) {
+                    project = ProjectFactory.createProject("to-derived.xlf", fileInputStream);
+                    final XliffProcessor processor = new XliffProcessor(project.getFile());
+                    batch.add(filename, project, processor.getOriginalFormat(), () ->
+                            JSONResponseFactory.getDerivedSuccess(new FiltersRouter().merge(processor)));
+                } catch (Exception e) {
+                    batch.addError(filename, project, e);
+                }
+            }
+
+            // Start converting, the response is written while the files are generated
+            return Response
+                    .status(Response.Status.OK)
+                    .entity(batch.start())
+                    .build();
+        }
+
+        // If the server is too busy, ask to retry later
+        catch (ConversionRejectedException e) {
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", e.getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build();
+        }
+
+        // If there is any error, return it
+        catch (Exception e) {
+            LOGGER.error("Exception converting batch of XLIFF to target", e);
+            return Response
+                    .status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build();
+        }
+    }
+
+}
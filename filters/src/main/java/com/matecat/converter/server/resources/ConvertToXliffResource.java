@@ -3,18 +3,25 @@ package com.matecat.converter.server.resources;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Locale;
 import java.util.MissingResourceException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
-import net.sf.okapi.common.exceptions.OkapiEncryptedDataException;
-import net.sf.okapi.common.exceptions.OkapiUnexpectedRevisionException;
 import com.matecat.filters.basefilters.FiltersRouter;
 import org.apache.commons.io.FilenameUtils;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
@@ -22,9 +29,13 @@ import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.matecat.converter.core.metrics.Metrics;
 import com.matecat.converter.core.project.Project;
 import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.ConversionExecutor;
 import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.RawResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
 import com.matecat.converter.server.exceptions.ServerException;
 
 
@@ -37,45 +48,40 @@ public class ConvertToXliffResource {
     // Logger
     private static Logger LOGGER = LoggerFactory.getLogger(ConvertToXliffResource.class);
 
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
     /**
      * Convert a file into XLF
+     *
+     * The request thread only receives the file; the conversion runs on the conversion executor, and the response
+     * is resumed once it ends.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces("application/json")
-    public Response convert(
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, RawResponseFactory.APPLICATION_XLIFF_XML})
+    public void convert(
             @FormDataParam("documentContent") InputStream fileInputStream,
             @FormDataParam("documentContent") FormDataContentDisposition contentDispositionHeader,
             @FormDataParam("fileName") String filename,
             @FormDataParam("sourceLocale") String sourceLanguageCode,
             @FormDataParam("targetLocale") String targetLanguageCode,
-            @FormDataParam("segmentation") String segmentation) {
+            @FormDataParam("segmentation") String segmentation,
+            @Context HttpHeaders headers,
+            @Context HttpServletResponse servletResponse,
+            @Suspended final AsyncResponse asyncResponse) {
 
-        // Due to a bug in the MIMEPull library (MIMEParser.java line 510),
-        // contentDispositionHeader.getFileName() returns the filename in ISO-8859-1
-        // even if it was sent in UTF-8. Unless this bug is there, here is a little
-        // workaround: you can send the filename in UTF-8 in the 'fileName' POST
-        // param. If the 'fileName' parameter is present, it overrides the name of
-        // the file in 'documentContent'
-        if (filename == null || filename.isEmpty())
-            filename = FilenameUtils.getName(contentDispositionHeader.getFileName());
-
-        // Make extension ALWAYS lower case.
-        // The original extension of the file is written in the output XLIFF
-        // always lowercase, for compliance with the XLIFF spec (see datatype
-        // attribute of <file> element). This causes insidious bugs in the
-        // back-conversion, very difficult to solve with the current class
-        // structure (I tried). This fixes it easily.
-        // TODO: refactor internal classes to be filename/extension agnostic
-        filename = FilenameUtils.removeExtension(filename) + "." + FilenameUtils.getExtension(filename).toLowerCase();
+        filename = getFilename(filename, contentDispositionHeader);
 
         LOGGER.info("SOURCE > XLIFF request: file=<{}> source=<{}> target=<{}>", filename, sourceLanguageCode, targetLanguageCode);
 
-        Project project = null;
-        Response response = null;
-        boolean everythingOk = false;
+        final AtomicBoolean everythingOk = new AtomicBoolean(false);
         try {
 
+            // Clients preferring a raw type get the file as-is, sent straight from the servlet output
+            final MediaType rawType = RawResponseFactory.getRawType(headers);
+            final OutputStream servletOutput = (rawType != null ? servletResponse.getOutputStream() : null);
+
             // Check that the input file is not null
             if (fileInputStream == null)
                 throw new IllegalArgumentException("The input file has not been sent");
@@ -85,57 +91,110 @@ public class ConvertToXliffResource {
             Locale targetLanguage = parseLanguage(targetLanguageCode);
 
             // Create the project
-            project = ProjectFactory.createProject(filename, fileInputStream);
+            final Project project = ProjectFactory.createProject(filename, fileInputStream);
 
-            // Retrieve the xlf
-            File xlf = new FiltersRouter().extract(project.getFile(), sourceLanguage, targetLanguage, segmentation);
+            // Close the project once the response has been sent, deleting the folder only if everything went well,
+            // or if the conversion was only interrupted
+            asyncResponse.register((CompletionCallback) failure -> project.close(everythingOk.get() && failure == null));
 
-            // Create response
-            response = Response
-                    .status(Response.Status.OK)
-                    .entity(JSONResponseFactory.getConvertSuccess(xlf))
-                    .build();
+            // Retrieve the xlf in the conversion executor
+            final File sourceFile = project.getFile();
+            conversionExecutor.execute(asyncResponse, Metrics.getFormat(sourceFile.getName()), () -> {
+                try {
+                    File xlf = new FiltersRouter().extract(sourceFile, sourceLanguage, targetLanguage, segmentation);
+
+                    // Create response
+                    Response response = (rawType != null ?
+                            RawResponseFactory.getSuccess(xlf, rawType, servletOutput) :
+                            Response
+                                    .status(Response.Status.OK)
+                                    .entity(JSONResponseFactory.getConvertSuccess(xlf))
+                                    .build());
+
+                    everythingOk.set(true);
+                    LOGGER.info("Successfully returned XLIFF file");
+                    return response;
+                } catch (Exception e) {
+                    // Answered by the executor
+                    if (ConversionExecutor.isInterruption(e))
+                        throw e;
+                    return getErrorResponse(e);
+                }
+            }, () -> everythingOk.set(true));
+        }
 
-            everythingOk = true;
-            LOGGER.info("Successfully returned XLIFF file");
+        // If the server is too busy, ask to retry later
+        catch (ConversionRejectedException e) {
+            // Nothing failed, there is no need to keep the files
+            everythingOk.set(true);
+            asyncResponse.resume(Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", e.getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build());
         }
 
         // If there is any error, return it
         catch (Exception e) {
-            String errorMessage;
-            if (e instanceof OkapiUnexpectedRevisionException) {
-                errorMessage = "Document contains revisions or comments, please review and remove them.";
-            } else if (e instanceof OkapiEncryptedDataException) {
-                errorMessage = "Document is password protected: can't access to contents.";
-            } else {
-                errorMessage = e.getMessage();
-            }
-            response =  Response
-                    .status(Response.Status.BAD_REQUEST)
-                    .entity(JSONResponseFactory.getError(errorMessage))
-                    .build();
-            LOGGER.error("Exception converting source to XLIFF: {}", errorMessage, e);
+            asyncResponse.resume(getErrorResponse(e));
         }
 
-        // Close the project and streams
+        // Close the stream
         finally {
             if (fileInputStream != null)
                 try {
                     fileInputStream.close();
                 } catch (IOException ignored) {}
-            if (project != null)
-                // Delete folder only if everything went well
-                project.close(everythingOk);
         }
+    }
+
+
+    /**
+     * Build the response of a failed conversion
+     */
+    private Response getErrorResponse(Exception e) {
+        String errorMessage = JSONResponseFactory.getErrorMessage(e);
+        LOGGER.error("Exception converting source to XLIFF: {}", errorMessage, e);
+        return Response
+                .status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(JSONResponseFactory.getError(errorMessage))
+                .build();
+    }
+
+
+    /**
+     * Get the filename of the uploaded file
+     */
+    static String getFilename(String filename, FormDataContentDisposition contentDispositionHeader) {
+
+        // Due to a bug in the MIMEPull library (MIMEParser.java line 510),
+        // contentDispositionHeader.getFileName() returns the filename in ISO-8859-1
+        // even if it was sent in UTF-8. Unless this bug is there, here is a little
+        // workaround: you can send the filename in UTF-8 in the 'fileName' POST
+        // param. If the 'fileName' parameter is present, it overrides the name of
+        // the file in 'documentContent'
+        if (filename == null || filename.isEmpty())
+            filename = FilenameUtils.getName(contentDispositionHeader.getFileName());
+
+        // Make extension ALWAYS lower case.
+        // The original extension of the file is written in the output XLIFF
+        // always lowercase, for compliance with the XLIFF spec (see datatype
+        // attribute of <file> element). This causes insidious bugs in the
+        // back-conversion, very difficult to solve with the current class
+        // structure (I tried). This fixes it easily.
+        // TODO: refactor internal classes to be filename/extension agnostic
+        filename = FilenameUtils.removeExtension(filename) + "." + FilenameUtils.getExtension(filename).toLowerCase();
 
-        return response;
+        return filename;
     }
 
 
     /**
      * Parse the language code into Locales
      */
-    private Locale parseLanguage(String languageCode) throws ServerException {
+    static Locale parseLanguage(String languageCode) throws ServerException {
 
         // Parse the code
         Locale language = Locale.forLanguageTag(
@@ -0,0 +1,82 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.core.util.Config;
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.MatecatConverterServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+
+/**
+ * Admin resource draining the server before taking it out of rotation
+ *
+ * The drain runs in the background: /ready answers 503 from now on, new conversions are rejected, and the accepted
+ * ones are left to end. The server keeps answering until it's stopped.
+ */
+@Path("/drain")
+public class DrainResource {
+
+    // Logger
+    private static final Logger LOGGER = LoggerFactory.getLogger(DrainResource.class);
+
+    @Inject
+    private MatecatConverterServer server;
+
+    /**
+     * Start draining the server
+     *
+     * When an admin token is configured it must be sent in the X-Admin-Token header; otherwise only requests from
+     * localhost are accepted.
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response drain(@HeaderParam("X-Admin-Token") String token,
+                          @Context HttpServletRequest request) {
+
+        if (!isAuthorized(token, request.getRemoteAddr())) {
+            LOGGER.warn("Rejected DRAIN request from {}", request.getRemoteAddr());
+            return Response
+                    .status(Response.Status.FORBIDDEN)
+                    .entity(JSONResponseFactory.getError("Not allowed to drain the server"))
+                    .build();
+        }
+
+        LOGGER.info("DRAIN request from {}", request.getRemoteAddr());
+        Thread drainThread = new Thread(server::drain, "drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+        return Response
+                .status(Response.Status.ACCEPTED)
+                .entity(JSONResponseFactory.getSuccess())
+                .build();
+    }
+
+
+    /**
+     * Check the admin token, or that the request comes from localhost if there isn't any
+     */
+    private static boolean isAuthorized(String token, String remoteAddress) {
+        if (!Config.adminToken.isEmpty())
+            return token != null && MessageDigest.isEqual(
+                    Config.adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+        try {
+            return InetAddress.getByName(remoteAddress).isLoopbackAddress();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+}
@@ -1,19 +1,33 @@
 package com.matecat.converter.server.resources;
 
+import com.matecat.converter.core.Format;
 import com.matecat.converter.core.XliffProcessor;
+import com.matecat.converter.core.metrics.Metrics;
 import com.matecat.converter.core.project.Project;
 import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.ConversionExecutor;
 import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.RawResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -25,64 +39,113 @@ public class ExtractOriginalFileResource {
     // Logger
     private static Logger LOGGER = LoggerFactory.getLogger(ConvertToXliffResource.class);
 
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
 
     /**
      * Extract the original file from the xlf
+     *
+     * The request thread only receives the file; the extraction runs on the conversion executor, and the response
+     * is resumed once it ends.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces("application/json")
-    public Response convert(@FormDataParam("file") InputStream fileInputStream) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, RawResponseFactory.APPLICATION_XLIFF_XML})
+    public void convert(@FormDataParam("file") InputStream fileInputStream,
+                        @Context HttpHeaders headers,
+                        @Context HttpServletResponse servletResponse,
+                        @Suspended final AsyncResponse asyncResponse) {
 
         // Logging
         LOGGER.info("XLIFF > SOURCE request");
 
-        Project project = null;
-        Response response = null;
-        boolean everythingOk = false;
+        final AtomicBoolean everythingOk = new AtomicBoolean(false);
         try {
 
+            // Clients preferring a raw type get the file as-is, sent straight from the servlet output
+            final MediaType rawType = RawResponseFactory.getRawType(headers);
+            final OutputStream servletOutput = (rawType != null ? servletResponse.getOutputStream() : null);
+
             // Check that the input file is not null
             if (fileInputStream == null)
                 throw new IllegalArgumentException("The input file has not been sent");
 
             // Create the project
-            project = ProjectFactory.createProject("to-original.xlf", fileInputStream);
+            final Project project = ProjectFactory.createProject("to-original.xlf", fileInputStream);
 
-            // Retrieve the xlf
-            File originalFile = new XliffProcessor(project.getFile()).getOriginalFile();
+            // Close the project once the response has been sent, deleting the folder only if everything went well,
+            // or if the conversion was only interrupted
+            asyncResponse.register((CompletionCallback) failure -> project.close(everythingOk.get() && failure == null));
 
-            // Create response
-            response = Response
-                    .status(Response.Status.OK)
-                    .entity(JSONResponseFactory.getDerivedSuccess(originalFile))
-                    .build();
+            // Retrieve the original file in the conversion executor
+            final XliffProcessor processor = new XliffProcessor(project.getFile());
+            final Format format = processor.getOriginalFormat();
+            conversionExecutor.execute(asyncResponse, format, () -> {
+                long start = System.nanoTime();
+                try {
+                    File originalFile = processor.getOriginalFile();
+                    Metrics.observe(Metrics.TOTAL, format, Metrics.XLIFF2SOURCE, start);
+
+                    // Create response
+                    Response response = (rawType != null ?
+                            RawResponseFactory.getSuccess(originalFile, rawType, servletOutput) :
+                            Response
+                                    .status(Response.Status.OK)
+                                    .entity(JSONResponseFactory.getDerivedSuccess(originalFile)
+                                            .measure(format, Metrics.XLIFF2SOURCE))
+                                    .build());
+
+                    everythingOk.set(true);
+                    LOGGER.info("Successfully returned source file");
+                    return response;
+                } catch (Exception e) {
+                    // Answered by the executor
+                    if (ConversionExecutor.isInterruption(e))
+                        throw e;
+                    Metrics.countError(format, Metrics.XLIFF2SOURCE, e);
+                    return getErrorResponse(e);
+                }
+            }, () -> everythingOk.set(true));
+        }
 
-            everythingOk = true;
-            LOGGER.info("Successfully returned source file");
+        // If the server is too busy, ask to retry later
+        catch (ConversionRejectedException e) {
+            // Nothing failed, there is no need to keep the files
+            everythingOk.set(true);
+            asyncResponse.resume(Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", e.getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build());
         }
 
         // If there is any error, return it
         catch (Exception e) {
-            response = Response
-                    .status(Response.Status.BAD_REQUEST)
-                    .entity(JSONResponseFactory.getError(e.getMessage()))
-                    .build();
-            LOGGER.error("Exception extracting source file from XLIFF", e);
+            asyncResponse.resume(getErrorResponse(e));
         }
 
-        // Close the project and streams
+        // Close the stream
         finally {
             if (fileInputStream != null)
                 try {
                     fileInputStream.close();
                 } catch (IOException ignored) {}
-            if (project != null)
-                // Delete folder only if everything went well
-                project.close(everythingOk);
         }
+    }
+
 
-        return response;
+    /**
+     * Build the response of a failed extraction
+     */
+    private Response getErrorResponse(Exception e) {
+        LOGGER.error("Exception extracting source file from XLIFF", e);
+        return Response
+                .status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(JSONResponseFactory.getError(e.getMessage()))
+                .build();
     }
 
 }
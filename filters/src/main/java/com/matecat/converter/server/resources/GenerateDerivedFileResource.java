@@ -1,22 +1,35 @@
 package com.matecat.converter.server.resources;
 
+import com.matecat.converter.core.XliffProcessor;
 import com.matecat.converter.core.project.Project;
 import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.ConversionExecutor;
 import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.RawResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
 import com.matecat.filters.basefilters.FiltersRouter;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -28,65 +41,109 @@ public class GenerateDerivedFileResource {
     // Logger
     private static Logger LOGGER = LoggerFactory.getLogger(ConvertToXliffResource.class);
 
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
     /**
      * Generate the derived file from the xlf
+     *
+     * The request thread only receives the file; the conversion runs on the conversion executor, and the response
+     * is resumed once it ends.
      */
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces("application/json")
-    public Response convert(
-            @FormDataParam("xliffContent") InputStream fileInputStream) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, RawResponseFactory.APPLICATION_XLIFF_XML})
+    public void convert(
+            @FormDataParam("xliffContent") InputStream fileInputStream,
+            @Context HttpHeaders headers,
+            @Context HttpServletResponse servletResponse,
+            @Suspended final AsyncResponse asyncResponse) {
 
         // Logging
         LOGGER.info("XLIFF > TARGET request");
 
-        Project project = null;
-        Response response = null;
-        boolean everythingOk = false;
+        final AtomicBoolean everythingOk = new AtomicBoolean(false);
         try {
 
+            // Clients preferring a raw type get the file as-is, sent straight from the servlet output
+            final MediaType rawType = RawResponseFactory.getRawType(headers);
+            final OutputStream servletOutput = (rawType != null ? servletResponse.getOutputStream() : null);
+
             // Check that the input file is not null
             if (fileInputStream == null)
                 throw new IllegalArgumentException("The input file has not been sent");
 
             // Create the project
-            project = ProjectFactory.createProject("to-derived.xlf", fileInputStream);
+            final Project project = ProjectFactory.createProject("to-derived.xlf", fileInputStream);
 
-            // Retrieve the xlf
-            File derivedFile = new FiltersRouter().merge(project.getFile());
+            // Close the project once the response has been sent, deleting the folder only if everything went well,
+            // or if the conversion was only interrupted
+            asyncResponse.register((CompletionCallback) failure -> project.close(everythingOk.get() && failure == null));
 
-            // Create response
-            response = Response
-                    .status(Response.Status.OK)
-                    .entity(JSONResponseFactory.getDerivedSuccess(derivedFile))
-                    .build();
+            // Retrieve the derived file in the conversion executor
+            final XliffProcessor processor = new XliffProcessor(project.getFile());
+            conversionExecutor.execute(asyncResponse, processor.getOriginalFormat(), () -> {
+                try {
+                    File derivedFile = new FiltersRouter().merge(processor);
+
+                    // Create response
+                    Response response = (rawType != null ?
+                            RawResponseFactory.getSuccess(derivedFile, rawType, servletOutput) :
+                            Response
+                                    .status(Response.Status.OK)
+                                    .entity(JSONResponseFactory.getDerivedSuccess(derivedFile))
+                                    .build());
+
+                    everythingOk.set(true);
+                    LOGGER.info("Successfully returned target file");
+                    return response;
+                } catch (Exception e) {
+                    // Answered by the executor
+                    if (ConversionExecutor.isInterruption(e))
+                        throw e;
+                    return getErrorResponse(e);
+                }
+            }, () -> everythingOk.set(true));
+        }
 
-            everythingOk = true;
-            LOGGER.info("Successfully returned target file");
+        // If the server is too busy, ask to retry later
+        catch (ConversionRejectedException e) {
+            // Nothing failed, there is no need to keep the files
+            everythingOk.set(true);
+            asyncResponse.resume(Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", e.getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build());
         }
 
         // If there is any error, return it
         catch (Exception e) {
-            response = Response
-                    .status(Response.Status.BAD_REQUEST)
-                    .entity(JSONResponseFactory.getError(e.getMessage()))
-                    .build();
-            LOGGER.error("Exception converting XLIFF to target", e);
+            asyncResponse.resume(getErrorResponse(e));
         }
 
-        // Close the project and streams
+        // Close the stream
         finally {
             if (fileInputStream != null)
                 try {
                     fileInputStream.close();
                 } catch (IOException ignored) {}
-            if (project != null)
-                // Delete folder only if everything went well
-                project.close(everythingOk);
         }
 
-        return response;
+    }
+
 
+    /**
+     * Build the response of a failed conversion
+     */
+    private Response getErrorResponse(Exception e) {
+        LOGGER.error("Exception converting XLIFF to target", e);
+        return Response
+                .status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(JSONResponseFactory.getError(e.getMessage()))
+                .build();
     }
 
 }
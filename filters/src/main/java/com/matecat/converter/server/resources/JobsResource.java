@@ -0,0 +1,295 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.core.project.Project;
+import com.matecat.converter.core.project.ProjectFactory;
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.RawResponseFactory;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import com.matecat.converter.server.jobs.Job;
+import com.matecat.converter.server.jobs.JobManager;
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Locale;
+
+
+/**
+ * Resource taking care of the asynchronous conversions
+ *
+ * Long conversions can be submitted as jobs instead of keeping the request open: the submission returns the id of
+ * the job at once, its status can be polled, and its result is fetched when it's done. The result is returned
+ * only once; the job and its files are deleted afterwards.
+ */
+@Path("/AutomationService/jobs")
+public class JobsResource {
+
+    // Logger
+    private static Logger LOGGER = LoggerFactory.getLogger(JobsResource.class);
+
+    @Inject
+    private JobManager jobManager;
+
+    /**
+     * Submit the conversion of a file into XLF, with the same parameters as original2xliff
+     */
+    @POST
+    @Path("original2xliff")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response convert(
+            @FormDataParam("documentContent") InputStream fileInputStream,
+            @FormDataParam("documentContent") FormDataContentDisposition contentDispositionHeader,
+            @FormDataParam("fileName") String filename,
+            @FormDataParam("sourceLocale") String sourceLanguageCode,
+            @FormDataParam("targetLocale") String targetLanguageCode,
+            @FormDataParam("segmentation") String segmentation) {
+
+        LOGGER.info("SOURCE > XLIFF job request: source=<{}> target=<{}>", sourceLanguageCode, targetLanguageCode);
+
+        Project project = null;
+        try {
+
+            // Check that the input file is not null
+            if (fileInputStream == null)
+                throw new IllegalArgumentException("The input file has not been sent");
+
+            // Parse the codes
+            Locale sourceLanguage = ConvertToXliffResource.parseLanguage(sourceLanguageCode);
+            Locale targetLanguage = ConvertToXliffResource.parseLanguage(targetLanguageCode);
+
+            // Create the project and queue the job
+            project = ProjectFactory.createProject(
+                    ConvertToXliffResource.getFilename(filename, contentDispositionHeader), fileInputStream);
+            Job job = jobManager.submit(Job.Type.ORIGINAL2XLIFF, project, sourceLanguage, targetLanguage, segmentation);
+            return getAcceptedResponse(job);
+        }
+
+        catch (Exception e) {
+            return getSubmitErrorResponse(project, e);
+        }
+
+        // Close the stream
+        finally {
+            closeQuietly(fileInputStream);
+        }
+    }
+
+
+    /**
+     * Submit the generation of the derived file from a xlf, with the same parameters as xliff2original
+     */
+    @POST
+    @Path("xliff2original")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response merge(
+            @FormDataParam("xliffContent") InputStream fileInputStream) {
+
+        LOGGER.info("XLIFF > TARGET job request");
+
+        Project project = null;
+        try {
+
+            // Check that the input file is not null
+            if (fileInputStream == null)
+                throw new IllegalArgumentException("The input file has not been sent");
+
+            // Create the project and queue the job
+            project = ProjectFactory.createProject("to-derived.xlf", fileInputStream);
+            Job job = jobManager.submit(Job.Type.XLIFF2ORIGINAL, project, null, null, null);
+            return getAcceptedResponse(job);
+        }
+
+        catch (Exception e) {
+            return getSubmitErrorResponse(project, e);
+        }
+
+        // Close the stream
+        finally {
+            closeQuietly(fileInputStream);
+        }
+    }
+
+
+    /**
+     * Get the status of a job
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status(@PathParam("id") String id) {
+        Job job = jobManager.get(id);
+        if (job == null)
+            return getNotFoundResponse(id);
+        return Response
+                .status(Response.Status.OK)
+                .entity(JSONResponseFactory.getJobStatus(job))
+                .build();
+    }
+
+
+    /**
+     * Get the result of a job, in the same way original2xliff and xliff2original return it
+     *
+     * The job is deleted once the result has been sent.
+     */
+    @GET
+    @Path("{id}/result")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM, RawResponseFactory.APPLICATION_XLIFF_XML})
+    public void result(
+            @PathParam("id") String id,
+            @Context HttpHeaders headers,
+            @Context HttpServletResponse servletResponse,
+            @Suspended final AsyncResponse asyncResponse) {
+
+        Job job = jobManager.get(id);
+        if (job == null) {
+            asyncResponse.resume(getNotFoundResponse(id));
+            return;
+        }
+
+        try {
+            switch (job.getStatus()) {
+
+                case DONE:
+                    // Delete the job once the result has been sent
+                    asyncResponse.register((CompletionCallback) failure -> {
+                        if (failure == null)
+                            jobManager.release(job);
+                    });
+                    MediaType rawType = RawResponseFactory.getRawType(headers);
+                    if (rawType != null)
+                        asyncResponse.resume(RawResponseFactory.getSuccess(job.getResult(), rawType, servletResponse.getOutputStream()));
+                    else
+                        asyncResponse.resume(Response
+                                .status(Response.Status.OK)
+                                .entity(job.getType() == Job.Type.ORIGINAL2XLIFF ?
+                                        JSONResponseFactory.getConvertSuccess(job.getResult()) :
+                                        JSONResponseFactory.getDerivedSuccess(job.getResult()))
+                                .build());
+                    LOGGER.info("Returning the result of job {}", id);
+                    break;
+
+                case FAILED:
+                    jobManager.release(job);
+                    asyncResponse.resume(Response
+                            .status(Response.Status.BAD_REQUEST)
+                            .type(MediaType.APPLICATION_JSON_TYPE)
+                            .entity(JSONResponseFactory.getError(job.getErrorMessage()))
+                            .build());
+                    break;
+
+                default:
+                    asyncResponse.resume(Response
+                            .status(Response.Status.CONFLICT)
+                            .type(MediaType.APPLICATION_JSON_TYPE)
+                            .entity(JSONResponseFactory.getError("The job is " + job.getStatus().name().toLowerCase() + ", its result is not ready"))
+                            .build());
+            }
+        } catch (IOException e) {
+            LOGGER.error("Exception returning the result of job {}", id, e);
+            asyncResponse.resume(Response
+                    .status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build());
+        }
+    }
+
+
+    /**
+     * Delete a job, cancelling it if it hasn't finished
+     */
+    @DELETE
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response delete(@PathParam("id") String id) {
+        if (!jobManager.delete(id))
+            return getNotFoundResponse(id);
+        return Response
+                .status(Response.Status.NO_CONTENT)
+                .build();
+    }
+
+
+    /**
+     * Build the response of a queued job, pointing to its status
+     */
+    private Response getAcceptedResponse(Job job) {
+        return Response
+                .status(Response.Status.ACCEPTED)
+                .location(URI.create("/AutomationService/jobs/" + job.getId()))
+                .entity(JSONResponseFactory.getJobStatus(job))
+                .build();
+    }
+
+
+    /**
+     * Build the response of a job which could not be submitted, closing its project
+     */
+    private Response getSubmitErrorResponse(Project project, Exception e) {
+
+        // If the server is too busy, ask to retry later
+        if (e instanceof ConversionRejectedException) {
+            if (project != null)
+                project.close(true);
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header("Retry-After", ((ConversionRejectedException) e).getRetryAfter())
+                    .entity(JSONResponseFactory.getError(e.getMessage()))
+                    .build();
+        }
+
+        LOGGER.error("Exception submitting job", e);
+        if (project != null)
+            project.close(false);
+        return Response
+                .status(Response.Status.BAD_REQUEST)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(JSONResponseFactory.getError(e.getMessage()))
+                .build();
+    }
+
+
+    /**
+     * Build the response of an unknown job
+     */
+    private Response getNotFoundResponse(String id) {
+        return Response
+                .status(Response.Status.NOT_FOUND)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(JSONResponseFactory.getError("Job " + id + " not found"))
+                .build();
+    }
+
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null)
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {}
+    }
+
+}
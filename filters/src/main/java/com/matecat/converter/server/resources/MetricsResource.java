@@ -0,0 +1,56 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.server.ConversionExecutor;
+import com.matecat.converter.server.jobs.JobManager;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Resource exposing the conversion metrics in the Prometheus text format
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    public static final String TEXT_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Inject
+    private ConversionExecutor conversionExecutor;
+
+    @Inject
+    private JobManager jobManager;
+
+    /**
+     * Get the metrics: the stage latencies, errors and bytes, and the current load of the server
+     */
+    @GET
+    @Produces(TEXT_PROMETHEUS)
+    public Response metrics() {
+        StreamingOutput output = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            Metrics.write(writer);
+            Metrics.writeGauge(writer, "conversions_in_flight", "Conversions running right now",
+                    conversionExecutor.getActiveCount());
+            Metrics.writeGauge(writer, "conversions_queued", "Conversions waiting for a free thread",
+                    conversionExecutor.getQueuedCount());
+            Metrics.writeGauge(writer, "jobs_queued", "Asynchronous jobs waiting to be submitted",
+                    jobManager.getQueuedCount());
+            writer.flush();
+        };
+        return Response
+                .status(Response.Status.OK)
+                .entity(output)
+                .build();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.MatecatConverterServer;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+
+/**
+ * Resource used by load balancers to check if the server accepts conversions
+ */
+@Path("/ready")
+public class ReadinessResource {
+
+    @Inject
+    private MatecatConverterServer server;
+
+    /**
+     * Return 200 if the server accepts conversions, 503 with the reason otherwise
+     */
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response ready() {
+        String notReadyReason = server.getStatus().getNotReadyReason();
+        if (notReadyReason != null)
+            return Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity(notReadyReason)
+                    .build();
+        return Response
+                .status(Response.Status.OK)
+                .entity("Ready")
+                .build();
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.MatecatConverterServer;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+
+/**
+ * Resource reporting the load and the resources of the server
+ *
+ * It's always answered with a 200, also when the server is not ready; /ready is the one to use as health check.
+ */
+@Path("/status")
+public class StatusResource {
+
+    @Inject
+    private MatecatConverterServer server;
+
+    /**
+     * Return the running and queued conversions, free space, heap, WinConverter instances and cache hit rates
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status() {
+        return Response
+                .status(Response.Status.OK)
+                .entity(server.getStatus().toJSONString())
+                .build();
+    }
+
+}
@@ -5,6 +5,7 @@ import com.matecat.converter.core.XliffBuilder;
 import com.matecat.converter.core.XliffProcessor;
 import com.matecat.converter.core.encoding.Encoding;
 import com.matecat.converter.core.encoding.EncodingDetectorRouter;
+import com.matecat.converter.core.metrics.Metrics;
 import com.matecat.converter.core.okapiclient.OkapiClient;
 import com.matecat.converter.core.okapiclient.OkapiPack;
 import com.matecat.converter.core.util.Config;
@@ -42,18 +43,28 @@ public class DefaultFilter implements IFilter {
 
         // 1. If the file it's not supported, convert it
         if (Config.winConvEnabled && !OkapiClient.isSupported(originalFormat)) {
+            long start = System.nanoTime();
             try {
                 sourceFile = WinConverterRouter.convert(sourceFile);
             } catch (Exception e) {
                 throw new RuntimeException(e);
+            } finally {
+                Metrics.observe(Metrics.WINCONVERTER, originalFormat, Metrics.ORIGINAL2XLIFF, start);
             }
         }
 
         // 2. Detect the encoding
+        long start = System.nanoTime();
         Encoding encoding = new EncodingDetectorRouter().detect(sourceFile);
+        Metrics.observe(Metrics.ENCODING_DETECTION, originalFormat, Metrics.ORIGINAL2XLIFF, start);
 
         // 3. Send to Okapi
-        return OkapiClient.generatePack(sourceLanguage, targetLanguage, encoding, sourceFile, segmentation, okapiFilter, segmentBilingual);
+        start = System.nanoTime();
+        try {
+            return OkapiClient.generatePack(sourceLanguage, targetLanguage, encoding, sourceFile, segmentation, okapiFilter, segmentBilingual);
+        } finally {
+            Metrics.observe(Metrics.OKAPI, originalFormat, Metrics.ORIGINAL2XLIFF, start);
+        }
     }
 
     @Override
@@ -1,7 +1,15 @@
 package com.matecat.filters.basefilters;
 
+import com.matecat.converter.core.Format;
+import com.matecat.converter.core.XliffBuilder;
 import com.matecat.converter.core.XliffProcessor;
+import com.matecat.converter.core.cache.CacheKey;
+import com.matecat.converter.core.cache.DiskCache;
+import com.matecat.converter.core.metrics.Metrics;
+import com.matecat.converter.core.okapiclient.OkapiClient;
+import com.matecat.converter.core.okapiclient.SrxRulesCache;
 import com.matecat.converter.core.util.Config;
+import com.matecat.converter.okapi.steps.segmentation.SegmentationFallbacks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +22,11 @@ public class FiltersRouter {
 
     private static Logger LOGGER = LoggerFactory.getLogger(FiltersRouter.class);
 
+    // Cache of the generated XLIFFs, null if disabled
+    private static final DiskCache RESULT_CACHE = (Config.resultCacheSize > 0 ?
+            new DiskCache("original2xliff", new File(Config.cacheFolder, "results"), Config.resultCacheSize) :
+            null);
+
     private List<IFilter> filters;
 
     public FiltersRouter() {
@@ -28,19 +41,84 @@ public class FiltersRouter {
     }
 
     public File extract(File sourceFile, Locale sourceLanguage, Locale targetLanguage, String segmentation) {
+        Format format = Metrics.getFormat(sourceFile.getName());
+        long start = System.nanoTime();
+        try {
+            File xlf = doExtract(sourceFile, sourceLanguage, targetLanguage, segmentation);
+            Metrics.observe(Metrics.TOTAL, format, Metrics.ORIGINAL2XLIFF, start);
+            return xlf;
+        } catch (RuntimeException e) {
+            Metrics.countError(format, Metrics.ORIGINAL2XLIFF, e);
+            throw e;
+        }
+    }
+
+    private File doExtract(File sourceFile, Locale sourceLanguage, Locale targetLanguage, String segmentation) {
         for (IFilter filter : filters) {
             if (filter.isSupported(sourceFile)) {
                 if (!(filter instanceof DefaultFilter)) {
                     LOGGER.info("Using custom filter: " + filter.getClass().getCanonicalName());
                 }
-                return filter.extract(sourceFile, sourceLanguage, targetLanguage, segmentation);
+                if (RESULT_CACHE == null)
+                    return filter.extract(sourceFile, sourceLanguage, targetLanguage, segmentation);
+                String key = getCacheKey(filter, sourceFile, sourceLanguage, targetLanguage, segmentation);
+                int fallbacks = SegmentationFallbacks.get();
+                try {
+                    // A XLIFF segmented with the timeout fallback is not stored: it's better the next time
+                    return RESULT_CACHE.get(key, sourceFile.getParentFile(),
+                            () -> filter.extract(sourceFile, sourceLanguage, targetLanguage, segmentation),
+                            () -> SegmentationFallbacks.get() == fallbacks);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
         throw new IllegalStateException("No registered filter supports the source file");
     }
 
+    /**
+     * Get the key of an extraction in the result cache: every input which changes the generated XLIFF is part of it
+     */
+    private static String getCacheKey(IFilter filter, File sourceFile, Locale sourceLanguage, Locale targetLanguage, String segmentation) {
+        return new CacheKey()
+                .add(sourceFile)
+                .add(sourceFile.getName())
+                .add(sourceLanguage.toLanguageTag())
+                .add(targetLanguage.toLanguageTag())
+                .add(segmentation)
+                .add(SrxRulesCache.get(OkapiClient.getSegmentationFile(segmentation)).getHash())
+                .add(filter.getClass().getName())
+                .add(XliffBuilder.FILTERS_VERSION)
+                .add(Config.compressEmbeddedFiles ? XliffBuilder.COMPRESSED_FORM : XliffBuilder.BASE64_FORM)
+                .build();
+    }
+
     public File merge(File xliff) {
-        XliffProcessor processor = new XliffProcessor(xliff);
+        return merge(new XliffProcessor(xliff));
+    }
+
+    /**
+     * Merge a XLIFF whose header may have already been read
+     * @param processor Processor of the XLIFF
+     * @return Derived file
+     */
+    public File merge(XliffProcessor processor) {
+        long start = System.nanoTime();
+        Format format = null;
+        try {
+            format = getOriginalFormat(processor);
+            File derivedFile = doMerge(processor);
+            Metrics.observe(Metrics.TOTAL, format, Metrics.XLIFF2ORIGINAL, start);
+            return derivedFile;
+        } catch (RuntimeException e) {
+            Metrics.countError(format, Metrics.XLIFF2ORIGINAL, e);
+            throw e;
+        }
+    }
+
+    private File doMerge(XliffProcessor processor) {
         String filterName = processor.getFilter();
         if (filterName == null) {
             LOGGER.warn("Missing filter class name in XLIFF: using DefaultFilter");
@@ -59,4 +137,13 @@ public class FiltersRouter {
         return filter.merge(processor);
     }
 
+    private static Format getOriginalFormat(XliffProcessor processor) {
+        try {
+            return processor.getOriginalFormat();
+        } catch (RuntimeException e) {
+            // Reported by the merge itself, if it needs it
+            return null;
+        }
+    }
+
 }
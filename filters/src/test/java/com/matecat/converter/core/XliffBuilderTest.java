@@ -2,26 +2,37 @@ package com.matecat.converter.core;
 
 import com.matecat.converter.core.okapiclient.OkapiPack;
 import com.matecat.filters.basefilters.DefaultFilter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.net.URL;
 import java.nio.file.Files;
 import java.util.Base64;
+import java.util.zip.InflaterInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Xliff Builder Test
  */
 public class XliffBuilderTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     OkapiPack pack;
 
     @Before
@@ -83,4 +94,57 @@ public class XliffBuilderTest {
         }
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBuildCompressed() throws Exception {
+
+        // Build xliff
+        File xliff = XliffBuilder.build(pack, Format.DOCX, DefaultFilter.class, true);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xliff);
+        Element root = document.getDocumentElement();
+
+        // The original file is a DOCX, so it's not compressed again
+        Element firstElement = (Element) root.getFirstChild();
+        Element originalInternalFile = (Element) firstElement.getElementsByTagName("internal-file").item(0);
+        assertEquals(XliffBuilder.BASE64_FORM, originalInternalFile.getAttribute("form"));
+
+        // The manifest is compressed
+        Element secondElement = (Element) firstElement.getNextSibling();
+        Element manifestInternalFile = (Element) secondElement.getElementsByTagName("internal-file").item(0);
+        assertEquals(XliffBuilder.COMPRESSED_FORM, manifestInternalFile.getAttribute("form"));
+        byte[] compressedManifest = Base64.getDecoder().decode(manifestInternalFile.getTextContent());
+        byte[] manifestBytes = Files.readAllBytes(pack.getManifest().toPath());
+        try (InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(compressedManifest))) {
+            assertArrayEquals(manifestBytes, IOUtils.toByteArray(inflater));
+        }
+
+        // The processor reads the compressed manifest back
+        File copy = new File(folder.getRoot(), xliff.getName());
+        FileUtils.moveFile(xliff, copy);
+        File originalFile = new XliffProcessor(copy).getOriginalFile();
+        assertEquals(pack.getOriginalFile().getName(), originalFile.getName());
+        assertArrayEquals(Files.readAllBytes(pack.getOriginalFile().toPath()), Files.readAllBytes(originalFile.toPath()));
+
+    }
+
+    @Test
+    public void testBuildKeepsCharacterReferences() throws Exception {
+
+        // Pack whose xliff contains a carriage return in a target, and a newline and a tab in an attribute
+        File packFolder = folder.newFolder(OkapiPack.PACK_FILENAME);
+        FileUtils.copyDirectory(pack.getPackFolder(), packFolder);
+        OkapiPack copy = new OkapiPack(packFolder);
+        String content = FileUtils.readFileToString(copy.getXlf(), "UTF-8")
+                .replaceFirst("<target xml:lang=\"en\">", "<target xml:lang=\"en\" state=\"a&#10;b&#9;c\">")
+                .replaceFirst("</target>", "&#13;</target>");
+        FileUtils.writeStringToFile(copy.getXlf(), content, "UTF-8");
+
+        // The parsed xliff is the same as the original
+        File xliff = XliffBuilder.build(copy, Format.DOCX, DefaultFilter.class);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xliff);
+        Element target = (Element) document.getElementsByTagName("target").item(0);
+        assertEquals("a\nb\tc", target.getAttribute("state"));
+        assertTrue(target.getTextContent().endsWith("\r"));
+
+    }
+}
@@ -0,0 +1,57 @@
+package com.matecat.converter.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Xliff header Test
+ */
+public class XliffHeaderTest {
+
+    @Test
+    public void testRead() {
+        File xlf = new File(getClass().getResource("/extraction/test.docx.xlf").getPath());
+        XliffHeader header = XliffHeader.read(xlf);
+
+        assertEquals("Oviedo.docx", header.getOriginal());
+        assertEquals("x-docx", header.getDatatype());
+        assertEquals(Format.DOCX, header.getOriginalFormat());
+        assertEquals("Oviedo.docx", header.getConvertedFilename());
+        assertEquals("matecat-converter", header.getToolId());
+        assertEquals(new Locale("en"), header.getSourceLanguage());
+        assertEquals(new Locale("en"), header.getTargetLanguage());
+        // Generated before the filters were stored
+        assertNull(header.getFilter());
+    }
+
+    @Test
+    public void testFilterOnlyAtTheBeginning() throws Exception {
+        String file = "<file original=\"a.txt\" datatype=\"x-txt\" filter=\"net.sf.okapi.filters.plaintext.PlainTextFilter\" "
+                + "source-language=\"en\" target-language=\"it\"/>";
+        char[] padding = new char[2000];
+        Arrays.fill(padding, ' ');
+        File xlf = File.createTempFile("header", ".xlf");
+        try {
+            FileUtils.writeStringToFile(xlf, "<xliff>" + file + "</xliff>", StandardCharsets.UTF_8);
+            assertEquals("net.sf.okapi.filters.plaintext.PlainTextFilter", XliffHeader.read(xlf).getFilter());
+
+            // The filter is read in the first 1000 chars only, the other attributes anywhere
+            FileUtils.writeStringToFile(xlf, "<xliff><!--" + new String(padding) + "-->" + file + "</xliff>", StandardCharsets.UTF_8);
+            XliffHeader header = XliffHeader.read(xlf);
+            assertNull(header.getFilter());
+            assertEquals("a.txt", header.getOriginal());
+            assertEquals(new Locale("it"), header.getTargetLanguage());
+        } finally {
+            xlf.delete();
+        }
+    }
+
+}
@@ -3,13 +3,22 @@ package com.matecat.converter.core;
 import com.matecat.converter.core.okapiclient.OkapiPack;
 import com.matecat.filters.basefilters.DefaultFilter;
 import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 
 /**
@@ -17,6 +26,9 @@ import static org.junit.Assert.assertEquals;
  */
 public class XliffProcessorTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
 
     /**
      * Test the extraction of the original file without problems
@@ -65,4 +77,92 @@ public class XliffProcessorTest {
 
     }
 
-}
\ No newline at end of file
+
+
+    /**
+     * Copy the test xlf into the temporary folder, prefixing the <ex> ids like the XliffBuilder does
+     * @return Copied xlf
+     */
+    private File copyTestXlf() throws Exception {
+        File source = new File(getClass().getResource("/extraction/test.docx.xlf").getPath());
+        String content = FileUtils.readFileToString(source, StandardCharsets.UTF_8).replace("<ex id=\"", "<ex id=\"_");
+        File xlf = folder.newFile("test.docx.xlf");
+        FileUtils.writeStringToFile(xlf, content, StandardCharsets.UTF_8);
+        return xlf;
+    }
+
+
+    /**
+     * Get the first embedded file, decoded without streaming
+     */
+    private static byte[] decodeFirstInternalFile(File xlf) throws Exception {
+        String content = FileUtils.readFileToString(xlf, StandardCharsets.UTF_8);
+        Matcher matcher = Pattern.compile("<internal-file form=\"base64\">(.*?)</internal-file>", Pattern.DOTALL).matcher(content);
+        assertTrue(matcher.find());
+        return Base64.getMimeDecoder().decode(matcher.group(1));
+    }
+
+
+    /**
+     * Test that the original file is extracted without reconstructing the pack
+     * @throws Exception
+     */
+    @Test
+    public void testExtractOriginalFile() throws Exception {
+        File xlf = copyTestXlf();
+        File originalFile = new XliffProcessor(xlf).getOriginalFile();
+
+        // Named as in the manifest
+        assertEquals("Oviedo.docx", originalFile.getName());
+        assertArrayEquals(decodeFirstInternalFile(xlf), FileUtils.readFileToByteArray(originalFile));
+        assertFalse(new File(folder.getRoot(), OkapiPack.PACK_FILENAME).exists());
+    }
+
+
+    /**
+     * Test that the pack is reconstructed from the embedded files, restoring the <ex> ids
+     * @throws Exception
+     */
+    @Test
+    public void testReconstructPack() throws Exception {
+        File xlf = copyTestXlf();
+        new XliffProcessor(xlf).getDerivedFile();
+
+        // The original file is decoded as it was embedded
+        File pack = new File(folder.getRoot(), OkapiPack.PACK_FILENAME);
+        File originalFile = new File(pack, OkapiPack.ORIGINAL_DIRECTORY_NAME + File.separator + "Oviedo.docx");
+        assertArrayEquals(decodeFirstInternalFile(xlf), FileUtils.readFileToByteArray(originalFile));
+
+        // The work xlf doesn't contain the embedded files, nor the prefixed ids
+        File workXlf = new File(pack, OkapiPack.WORK_DIRECTORY_NAME + File.separator + originalFile.getName() + ".xlf");
+        String workContent = FileUtils.readFileToString(workXlf, StandardCharsets.UTF_8);
+        assertFalse(workContent.contains("internal-file"));
+        assertFalse(workContent.contains("<ex id=\"_"));
+        assertTrue(workContent.contains("<ex id=\"2\""));
+        assertTrue(workContent.matches("(?s)<\\?xml version=.1\\.0. encoding=.UTF-8.[^?]*\\?>.*"));
+    }
+
+
+
+    /**
+     * Test that the character references of the targets survive the reconstruction of the work xlf
+     * @throws Exception
+     */
+    @Test
+    public void testReconstructPackKeepsCharacterReferences() throws Exception {
+        File xlf = copyTestXlf();
+        String content = FileUtils.readFileToString(xlf, StandardCharsets.UTF_8)
+                .replaceFirst("<target xml:lang=\"en\">", "<target xml:lang=\"en\" state=\"a&#10;b&#9;c\">")
+                .replaceFirst("</target>", "&#13;</target>");
+        FileUtils.writeStringToFile(xlf, content, StandardCharsets.UTF_8);
+        new XliffProcessor(xlf).getDerivedFile();
+
+        File workXlf = new File(folder.getRoot(), OkapiPack.PACK_FILENAME + File.separator + OkapiPack.WORK_DIRECTORY_NAME
+                + File.separator + "Oviedo.docx.xlf");
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(workXlf);
+        Element target = (Element) document.getElementsByTagName("target").item(0);
+        assertEquals("a\nb\tc", target.getAttribute("state"));
+        assertTrue(target.getTextContent().endsWith("\r"));
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.matecat.converter.core.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheFolder;
+    private File targetFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFolder = folder.newFolder("cache");
+        targetFolder = folder.newFolder("target");
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(folder.newFolder(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 1024);
+        String key = new CacheKey().add("a").build();
+        File computed = write("result.xlf", "content");
+        AtomicInteger computations = new AtomicInteger();
+
+        assertEquals(computed, cache.get(key, targetFolder, () -> {
+            computations.incrementAndGet();
+            return computed;
+        }));
+        File cached = cache.get(key, targetFolder, () -> {
+            computations.incrementAndGet();
+            return computed;
+        });
+
+        assertEquals(1, computations.get());
+        assertEquals(new File(targetFolder, "result.xlf"), cached);
+        assertEquals("content", read(cached));
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 1024);
+        File computed = write("result.xlf", "degraded");
+        AtomicInteger computations = new AtomicInteger();
+
+        assertEquals(computed, cache.get("key", targetFolder, () -> {
+            computations.incrementAndGet();
+            return computed;
+        }, () -> false));
+        assertEquals(0, cache.getEntries());
+
+        // Computed again, and cached this time
+        cache.get("key", targetFolder, () -> {
+            computations.incrementAndGet();
+            return computed;
+        }, () -> true);
+        assertEquals(2, computations.get());
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void testHitAs() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 1024);
+        File computed = write("first.docx", "content");
+        cache.getAs("key", computed, () -> computed);
+
+        File target = new File(targetFolder, "second.docx");
+        assertEquals(target, cache.getAs("key", target, () -> { throw new AssertionError(); }));
+        assertEquals("content", read(target));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 10);
+        File first = write("first", "12345");
+        File second = write("second", "12345");
+        File third = write("third", "12345");
+
+        cache.get("first", targetFolder, () -> first);
+        cache.get("second", targetFolder, () -> second);
+        // Use the first one, so the second one is the least recently used
+        cache.get("first", targetFolder, () -> { throw new AssertionError(); });
+        cache.get("third", targetFolder, () -> third);
+
+        assertEquals(2, cache.getEntries());
+        assertEquals(10, cache.getSize());
+        assertFalse(new File(cacheFolder, "second").exists());
+        assertTrue(new File(cacheFolder, "first").exists());
+    }
+
+    @Test
+    public void testTooBig() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 4);
+        File file = write("file", "12345");
+        cache.get("file", targetFolder, () -> file);
+        assertEquals(0, cache.getEntries());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File file = write("file", "content");
+        new DiskCache("test", cacheFolder, 1024).get("file", targetFolder, () -> file);
+        new File(cacheFolder, "interrupted.tmp").mkdir();
+
+        DiskCache cache = new DiskCache("test", cacheFolder, 1024);
+        assertEquals(1, cache.getEntries());
+        assertFalse(new File(cacheFolder, "interrupted.tmp").exists());
+        File cached = cache.get("file", targetFolder, () -> { throw new AssertionError(); });
+        assertEquals("content", read(cached));
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        DiskCache cache = new DiskCache("test", cacheFolder, 1024);
+        File computed = write("result", "content");
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<File> first = executor.submit(() -> cache.get("key", folder.newFolder(), () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return computed;
+            }));
+            started.await();
+            Future<File> second = executor.submit(() -> cache.get("key", targetFolder, () -> {
+                computations.incrementAndGet();
+                return computed;
+            }));
+            Thread.sleep(200);
+            release.countDown();
+
+            assertEquals(computed, first.get(10, TimeUnit.SECONDS));
+            assertEquals("content", read(second.get(10, TimeUnit.SECONDS)));
+            assertEquals(1, computations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCacheKey() {
+        assertEquals(new CacheKey().add("ab").add("c").build(), new CacheKey().add("ab").add("c").build());
+        assertNotEquals(new CacheKey().add("ab").add("c").build(), new CacheKey().add("a").add("bc").build());
+        assertNotEquals(new CacheKey().add((String) null).build(), new CacheKey().add("").build());
+    }
+
+}
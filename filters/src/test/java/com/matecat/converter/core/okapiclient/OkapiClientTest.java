@@ -1,17 +1,27 @@
 package com.matecat.converter.core.okapiclient;
 
+import com.matecat.converter.core.XliffHeader;
 import com.matecat.converter.core.encoding.Encoding;
+import com.matecat.converter.core.metrics.Metrics;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.util.Locale;
 
+import static org.junit.Assert.*;
+
 public class OkapiClientTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private void testFile(String filename) {
         File file = new File(getClass().getResource("/okapi/" + filename).getPath());
         OkapiPack pack = OkapiClient.generatePack(Locale.ENGLISH, Locale.ENGLISH, Encoding.getDefault(), file, null, null, false);
-        OkapiClient.generateDerivedFile(pack);
+        OkapiClient.generateDerivedFile(pack, XliffHeader.read(pack.getXlf()));
         pack.delete();
     }
 
@@ -125,5 +135,22 @@ public class OkapiClientTest {
         testFile("test.mif");
     }
 
+    /**
+     * Check that a pipeline reused in another folder gives the same result
+     */
+    @Test
+    public void testPipelineReuse() throws Exception {
+        File original = new File(getClass().getResource("/okapi/test.docx").getPath());
+        String[] xliffs = new String[2];
+        for (int i = 0; i < xliffs.length; i++) {
+            File file = new File(folder.newFolder(), original.getName());
+            FileUtils.copyFile(original, file);
+            OkapiPack pack = OkapiClient.generatePack(Locale.ENGLISH, Locale.ITALIAN, Encoding.getDefault(), file, null, null, false);
+            xliffs[i] = FileUtils.readFileToString(pack.getXlf(), "UTF-8");
+            assertTrue(OkapiClient.generateDerivedFile(pack, XliffHeader.read(pack.getXlf())).isFile());
+        }
+        assertEquals(xliffs[0], xliffs[1]);
+        assertTrue(Metrics.getCacheHits("okapi_pipelines") > 0);
+    }
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,14 @@
 package com.matecat.converter.core.okapiclient;
 
+import com.matecat.converter.core.metrics.Metrics;
+import net.sf.okapi.common.filters.IFilter;
+import net.sf.okapi.filters.abstractmarkup.AbstractMarkupParameters;
 import org.junit.Test;
 
+import java.io.File;
+
+import static org.junit.Assert.*;
+
 
 public class OkapiFilterFactoryTest {
 
@@ -30,4 +37,54 @@ public class OkapiFilterFactoryTest {
                 });*/
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Check that the custom configurations are loaded once and applied to every filter
+     */
+    @Test
+    public void testCustomConfigurations() throws Exception {
+        for (String filename : new String[]{"test.html", "test.xml", "test.dita"}) {
+            AbstractMarkupParameters first = (AbstractMarkupParameters) OkapiFilterFactory.getFilter(new File(filename)).getParameters();
+            AbstractMarkupParameters second = (AbstractMarkupParameters) OkapiFilterFactory.getFilter(new File(filename)).getParameters();
+            assertNotSame(filename, first, second);
+            assertSame(filename, first.getTaggedConfig(), second.getTaggedConfig());
+        }
+
+        for (String filename : new String[]{"test.strings", "test.srt", "test.resx", "test.wix"}) {
+            IFilter filter = OkapiFilterFactory.getFilter(new File(filename));
+            String defaults = filter.getClass().newInstance().getParameters().toString();
+            assertNotEquals(filename, defaults, filter.getParameters().toString());
+        }
+    }
+
+
+    /**
+     * Check that released filters are reused for the same format only
+     */
+    @Test
+    public void testPool() throws Exception {
+        File docx = new File("test.docx");
+        IFilter first = OkapiFilterFactory.borrowFilter(docx);
+        IFilter second = OkapiFilterFactory.borrowFilter(docx);
+        assertNotSame(first, second);
+
+        OkapiFilterFactory.releaseFilter(docx, first);
+        assertNotSame(first, OkapiFilterFactory.borrowFilter(new File("test.pptx")));
+        assertSame(first, OkapiFilterFactory.borrowFilter(docx));
+    }
+
+
+    /**
+     * Check that the filters with custom configurations are ready in the pool after the prewarm
+     */
+    @Test
+    public void testPrewarm() throws Exception {
+        OkapiFilterFactory.prewarm();
+        for (String filename : new String[]{"test.html", "test.xml", "test.dita", "test.strings", "test.srt", "test.resx", "test.wix"}) {
+            long hits = Metrics.getCacheHits("okapi_filters");
+            OkapiFilterFactory.borrowFilter(new File(filename));
+            assertEquals(filename, hits + 1, Metrics.getCacheHits("okapi_filters"));
+        }
+    }
+
+}
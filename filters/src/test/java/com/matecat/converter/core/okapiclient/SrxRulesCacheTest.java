@@ -0,0 +1,44 @@
+package com.matecat.converter.core.okapiclient;
+
+import com.matecat.converter.okapi.steps.segmentation.IcuSentenceHints;
+import net.sf.okapi.common.ISegmenter;
+import net.sf.okapi.common.LocaleId;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class SrxRulesCacheTest {
+
+    @Test
+    public void testRulesAreParsedOnce() {
+        SrxRulesCache.Rules rules = SrxRulesCache.get(OkapiClient.SRX_FILE);
+        assertSame(rules, SrxRulesCache.get(OkapiClient.SRX_FILE));
+        assertEquals(64, rules.getHash().length());
+    }
+
+    @Test
+    public void testSegmentersAreReused() {
+        SrxRulesCache.Rules rules = SrxRulesCache.get(OkapiClient.SRX_FILE);
+        LocaleId language = LocaleId.fromString("en-US");
+
+        ISegmenter first = rules.borrow(language);
+        ISegmenter second = rules.borrow(language);
+        // Never lent twice at the same time
+        assertNotSame(first, second);
+
+        rules.release(language, first);
+        assertSame(first, rules.borrow(language));
+        // The default rules break where the ICU hints are
+        assertEquals(2, first.computeSegments("First sentence." + IcuSentenceHints.SENTENCE_BOUNDARY_PLACEHOLDER + " Second sentence."));
+    }
+
+    @Test
+    public void testInterruptibleSegmenterIsShared() {
+        SrxRulesCache.Rules rules = SrxRulesCache.get(OkapiClient.SRX_FILE);
+        LocaleId language = LocaleId.fromString("en-US");
+        assertNotNull(rules.getInterruptibleSegmenter(language));
+        assertSame(rules.getInterruptibleSegmenter(language), rules.getInterruptibleSegmenter(language));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.ibm.icu.text.BreakIterator;
+import com.ibm.icu.util.ULocale;
+import net.sf.okapi.common.resource.TextFragment;
+
+import java.util.Locale;
+
+/**
+ * Copy of the hints insertion and removal of the original AddIcuHintsStep and RemoveIcuHintsStep
+ *
+ * Kept only as the reference of the single step segmentation, which must give the same segments.
+ */
+class BaselineIcuHints {
+
+    /**
+     * Private constructor (static class)
+     */
+    private BaselineIcuHints() {}
+
+    private final static char SENTENCE_BOUNDARY_PLACEHOLDER = '\uE105';
+    private final static String UNICODE_WHITESPACES = "[\\pZ\\pC]";
+
+
+    /**
+     * Add the placeholders where ICU finds a sentence boundary, as AddIcuHintsStep.handleTextUnit did
+     * @param textFragment Content of a segment, changed in place
+     * @param sourceLocale Source language
+     */
+    static void addHints(TextFragment textFragment, Locale sourceLocale) {
+        final BreakIterator sentenceIterator = BreakIterator.getSentenceInstance(ULocale.forLocale(sourceLocale));
+        final char[] codedText = textFragment.getCodedText().toCharArray();
+        final String cleanText = textFragment.getText()
+                .replaceAll(UNICODE_WHITESPACES, " ")
+                .replace('\u2026', '.');
+        sentenceIterator.setText(cleanText);
+        final StringBuilder codedTextWithHints = new StringBuilder();
+        int prevCodedTextIndex = 0;
+        int curCodedTextIndex = 0;
+        int curCleanTextIndex = 0;
+
+        for (int boundary = sentenceIterator.next(); boundary != BreakIterator.DONE; boundary = sentenceIterator.next()) {
+            if (boundary == cleanText.length()) continue;
+            while (cleanText.charAt(boundary - 1) == ' ' && boundary > 0) {
+                boundary--;
+            }
+            while (curCleanTextIndex < boundary) {
+                if (TextFragment.isMarker(codedText[curCodedTextIndex])) {
+                    curCodedTextIndex += 2;
+                } else {
+                    curCleanTextIndex++;
+                    curCodedTextIndex++;
+                }
+            }
+            codedTextWithHints
+                    .append(codedText, prevCodedTextIndex, curCodedTextIndex - prevCodedTextIndex)
+                    .append(SENTENCE_BOUNDARY_PLACEHOLDER);
+            prevCodedTextIndex = curCodedTextIndex;
+        }
+
+        codedTextWithHints
+                .append(codedText, curCodedTextIndex, codedText.length - curCodedTextIndex);
+        textFragment.setCodedText(codedTextWithHints.toString());
+    }
+
+
+    /**
+     * Remove the placeholders from a segment, as RemoveIcuHintsStep did
+     * @param textFragment Content of a segment, changed in place
+     */
+    static void removeHints(TextFragment textFragment) {
+        textFragment.setCodedText(textFragment.getCodedText().replace("" + SENTENCE_BOUNDARY_PLACEHOLDER, ""));
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.ibm.icu.text.BreakIterator;
+import com.ibm.icu.util.ULocale;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class BreakIteratorCacheTest {
+
+    @Test
+    public void testIteratorsAreIndependent() {
+        BreakIterator first = BreakIteratorCache.getSentenceInstance(ULocale.ENGLISH);
+        BreakIterator second = BreakIteratorCache.getSentenceInstance(ULocale.ENGLISH);
+        assertNotSame(first, second);
+
+        first.setText("First sentence. Second sentence.");
+        second.setText("Only one sentence.");
+        assertEquals(16, first.next());
+        assertEquals(18, second.next());
+        assertEquals(32, first.next());
+    }
+
+}
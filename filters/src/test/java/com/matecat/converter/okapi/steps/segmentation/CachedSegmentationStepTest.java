@@ -0,0 +1,62 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.okapiclient.OkapiClient;
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.EventType;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.resource.TextContainer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+
+public class CachedSegmentationStepTest {
+
+    /**
+     * Step whose rules exceed the time budget on the first paragraph only
+     */
+    private static class SlowOnceStep extends CachedSegmentationStep {
+
+        private int runs = 0;
+
+        private SlowOnceStep() {
+            super(OkapiClient.SRX_FILE);
+        }
+
+        @Override
+        protected List<Range> runSegmenter(TextContainer tc) {
+            if (runs++ == 0)
+                throw new InterruptibleSrxSegmenter.SegmentationTimeoutException(Pattern.compile("slow"));
+            return super.runSegmenter(tc);
+        }
+    }
+
+    @Test
+    public void testTimeoutIsNotCached() {
+        SlowOnceStep step = new SlowOnceStep();
+        step.setSourceLocale(LocaleId.fromString("en-US"));
+        step.handleEvent(new Event(EventType.START_BATCH_ITEM));
+        String text = "First sentence. Second sentence. " + UUID.randomUUID();
+        try {
+            int fallbacks = SegmentationFallbacks.get();
+            TextContainer first = new TextContainer(text);
+            step.segment(first);
+            assertEquals(fallbacks + 1, SegmentationFallbacks.get());
+            assertEquals(2, first.getSegments().count());
+
+            // The same paragraph is segmented with the rules again, instead of reusing the fallback
+            TextContainer second = new TextContainer(text);
+            step.segment(second);
+            assertEquals(2, step.runs);
+            assertEquals(fallbacks + 1, SegmentationFallbacks.get());
+        } finally {
+            step.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.TextFragment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark of the ICU hints insertion, against the original AddIcuHintsStep
+ *
+ * Not a test: run its main method on the test classpath. It prints the average time per paragraph of both versions,
+ * after a warm up.
+ */
+class IcuSentenceHintsBenchmark {
+
+    /**
+     * Private constructor (static class)
+     */
+    private IcuSentenceHintsBenchmark() {}
+
+    private static final String[] SENTENCES = {
+            "Mr. Smith went to Washington.",
+            "He arrived at 5 p.m. and left the next day!",
+            "Is this the right place?",
+            "Prices start at $4.99 per unit\u2026",
+            "The results are in table 3.2 of the report.",
+            "Please read the notes carefully.",
+    };
+    private static final int PARAGRAPHS = 2000;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+
+    public static void main(String[] args) {
+        List<TextFragment> paragraphs = createParagraphs();
+
+        IcuSentenceHints hints = new IcuSentenceHints();
+        hints.setLocale(LocaleId.fromString("en-US"));
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            runBaseline(paragraphs);
+            runCurrent(hints, paragraphs);
+        }
+
+        long baseline = 0, current = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            baseline += runBaseline(paragraphs);
+            current += runCurrent(hints, paragraphs);
+        }
+
+        long measured = (long) ROUNDS * PARAGRAPHS;
+        System.out.printf("Baseline AddIcuHintsStep: %,d ns/paragraph%n", baseline / measured);
+        System.out.printf("IcuSentenceHints:         %,d ns/paragraph%n", current / measured);
+    }
+
+
+    /**
+     * Paragraphs of one to six sentences, some of them with inline codes
+     */
+    private static List<TextFragment> createParagraphs() {
+        Random random = new Random(42);
+        List<TextFragment> paragraphs = new ArrayList<>();
+        for (int i = 0; i < PARAGRAPHS; i++) {
+            TextFragment fragment = new TextFragment();
+            int sentences = 1 + random.nextInt(6);
+            for (int j = 0; j < sentences; j++) {
+                if (j > 0) fragment.append(random.nextBoolean() ? " " : "  ");
+                if (random.nextInt(4) == 0) {
+                    fragment.append(TextFragment.TagType.OPENING, "b", "<b>");
+                    fragment.append(SENTENCES[random.nextInt(SENTENCES.length)]);
+                    fragment.append(TextFragment.TagType.CLOSING, "b", "</b>");
+                } else {
+                    fragment.append(SENTENCES[random.nextInt(SENTENCES.length)]);
+                }
+            }
+            paragraphs.add(fragment);
+        }
+        return paragraphs;
+    }
+
+
+    private static long runBaseline(List<TextFragment> paragraphs) {
+        // The original step changed the paragraphs in place
+        List<TextFragment> copies = new ArrayList<>();
+        for (TextFragment paragraph : paragraphs) {
+            copies.add(paragraph.clone());
+        }
+        long start = System.nanoTime();
+        for (TextFragment copy : copies) {
+            BaselineIcuHints.addHints(copy, Locale.US);
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private static long runCurrent(IcuSentenceHints hints, List<TextFragment> paragraphs) {
+        long start = System.nanoTime();
+        for (TextFragment paragraph : paragraphs) {
+            hints.addHints(paragraph.getCodedText());
+        }
+        return System.nanoTime() - start;
+    }
+
+}
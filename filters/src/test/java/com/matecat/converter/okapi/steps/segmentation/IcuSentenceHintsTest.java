@@ -0,0 +1,68 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.TextFragment;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+
+public class IcuSentenceHintsTest {
+
+    private static final char HINT = IcuSentenceHints.SENTENCE_BOUNDARY_PLACEHOLDER;
+
+    private IcuSentenceHints hints;
+
+    @Before
+    public void setUp() {
+        hints = new IcuSentenceHints();
+        hints.setLocale(LocaleId.fromString("en-US"));
+    }
+
+    @Test
+    public void testSingleSentence() {
+        assertNull(hints.addHints("Only one sentence."));
+    }
+
+    @Test
+    public void testHintsWithCodesAndWhitespaces() {
+        TextFragment fragment = new TextFragment("First sentence.");
+        fragment.append(TextFragment.TagType.PLACEHOLDER, "x", "<x/>");
+        fragment.append(" \n Second… Third.");
+        String codes = fragment.getCodedText().substring(15, 17);
+
+        // Hints go right after the sentence, before the codes and the spaces
+        assertEquals("First sentence." + HINT + codes + " \n Second…" + HINT + " Third.", hints.addHints(fragment.getCodedText()));
+
+        // The buffers are reused by the next segment
+        assertEquals("A." + HINT + " B.", hints.addHints("A. B."));
+    }
+
+    @Test
+    public void testSameHintsAsTheBaseline() {
+        String[] texts = {
+                "Only one sentence.",
+                "First sentence.  Second one!\tThird one?",
+                "Mr. Smith went to Washington. He arrived at 5 p.m. and left.",
+                "Wait\u2026 Then go.\u00A0\u2003Done.",
+                "Line one.\nLine two.\r\nLine three.",
+        };
+        for (String text : texts) {
+            for (boolean withCodes : new boolean[]{false, true}) {
+                TextFragment fragment = new TextFragment();
+                if (withCodes) fragment.append(TextFragment.TagType.OPENING, "b", "<b>");
+                fragment.append(text);
+                if (withCodes) fragment.append(TextFragment.TagType.CLOSING, "b", "</b>");
+
+                String codedText = fragment.getCodedText();
+                String withHints = hints.addHints(codedText);
+                BaselineIcuHints.addHints(fragment, Locale.US);
+                assertEquals(text, fragment.getCodedText(), (withHints != null ? withHints : codedText));
+            }
+        }
+    }
+
+}
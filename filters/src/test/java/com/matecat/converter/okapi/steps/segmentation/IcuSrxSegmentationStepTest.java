@@ -0,0 +1,91 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.okapiclient.OkapiClient;
+import com.matecat.converter.core.okapiclient.SrxRulesCache;
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.EventType;
+import net.sf.okapi.common.ISegmenter;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.common.resource.TextPart;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class IcuSrxSegmentationStepTest {
+
+    private static final LocaleId LANGUAGE = LocaleId.fromString("en-US");
+
+    private static TextFragment fragment(String... chunks) {
+        // Odd chunks are inline codes
+        TextFragment fragment = new TextFragment();
+        for (int i = 0; i < chunks.length; i++) {
+            if (i % 2 == 0) fragment.append(chunks[i]);
+            else fragment.append(TextFragment.TagType.PLACEHOLDER, "x", chunks[i]);
+        }
+        return fragment;
+    }
+
+    private static List<String> parts(TextContainer tc) {
+        List<String> parts = new ArrayList<>();
+        for (TextPart part : tc) {
+            parts.add((part.isSegment() ? "S:" : "T:") + part.getContent().getCodedText());
+        }
+        return parts;
+    }
+
+    /**
+     * Segment as the original AddIcuHintsStep, segmentation and RemoveIcuHintsStep chain did
+     */
+    private static List<String> segmentWithBaselineChain(TextFragment fragment) {
+        BaselineIcuHints.addHints(fragment, LANGUAGE.toJavaLocale());
+
+        SrxRulesCache.Rules rules = SrxRulesCache.get(OkapiClient.SRX_FILE);
+        ISegmenter segmenter = rules.borrow(LANGUAGE);
+        TextContainer tc = new TextContainer(fragment);
+        segmenter.computeSegments(tc);
+        tc.getSegments().create(segmenter.getRanges());
+        rules.release(LANGUAGE, segmenter);
+
+        for (TextPart part : tc) {
+            if (part.isSegment())
+                BaselineIcuHints.removeHints(part.getContent());
+        }
+        return parts(tc);
+    }
+
+    @Test
+    public void testSameSegmentsAsTheBaselineChain() {
+        IcuSrxSegmentationStep step = new IcuSrxSegmentationStep(OkapiClient.SRX_FILE);
+        step.setSourceLocale(LANGUAGE);
+        step.handleEvent(new Event(EventType.START_BATCH_ITEM));
+        try {
+            String[][] texts = {
+                    {"Only .004% resulted in a damage."},
+                    {"2 bananas. 3 tomatoes."},
+                    {"The Title\n\nThe text."},
+                    {"Mr. Smith went to Washington. He arrived at 5 p.m. and left."},
+                    {"Some text, ", "<b>", "other text. More text.", "</b>"},
+                    {"First sentence.", "<br/>", "  Second sentence!   Third one?"},
+                    {"Link to test.com/folder/folder/?a=1 and more. End"},
+                    // Long enough to be segmented within the time budget
+                    {String.join(" ", Collections.nCopies(40, "Mr. Smith arrived at 5 p.m. and left.")), "<b>", "Bold end.", "</b>"},
+            };
+            for (String[] text : texts) {
+                TextContainer tc = new TextContainer(fragment(text));
+                step.segment(tc);
+                assertFalse(tc.getCodedText().indexOf(IcuSentenceHints.SENTENCE_BOUNDARY_PLACEHOLDER) >= 0);
+                assertEquals(String.join("", text), segmentWithBaselineChain(fragment(text)), parts(tc));
+            }
+        } finally {
+            step.destroy();
+        }
+    }
+
+}
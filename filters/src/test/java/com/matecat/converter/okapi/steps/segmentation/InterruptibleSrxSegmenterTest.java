@@ -0,0 +1,103 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.okapiclient.OkapiClient;
+import com.matecat.converter.core.okapiclient.SrxRulesCache;
+import net.sf.okapi.common.ISegmenter;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.Range;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.lib.segmentation.SRXDocument;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+
+public class InterruptibleSrxSegmenterTest {
+
+    private static final LocaleId LANGUAGE = LocaleId.fromString("en-US");
+
+    private static TextContainer container(String... chunks) {
+        // Odd chunks are inline codes
+        TextFragment fragment = new TextFragment();
+        for (int i = 0; i < chunks.length; i++) {
+            if (i % 2 == 0) fragment.append(chunks[i]);
+            else if (chunks[i].startsWith("</")) fragment.append(TextFragment.TagType.CLOSING, "b", chunks[i]);
+            else if (chunks[i].endsWith("/>")) fragment.append(TextFragment.TagType.PLACEHOLDER, "x", chunks[i]);
+            else fragment.append(TextFragment.TagType.OPENING, "b", chunks[i]);
+        }
+        return new TextContainer(fragment);
+    }
+
+    private static List<String> toStrings(List<Range> ranges) {
+        List<String> strings = new ArrayList<>();
+        for (Range range : ranges) {
+            strings.add(range.start + "-" + range.end);
+        }
+        return strings;
+    }
+
+    @Test
+    public void testSameSegmentsAsSrxSegmenter() {
+        SrxRulesCache.Rules rules = SrxRulesCache.get(OkapiClient.SRX_FILE);
+        InterruptibleSrxSegmenter interruptibleSegmenter = rules.getInterruptibleSegmenter(LANGUAGE);
+        ISegmenter segmenter = rules.borrow(LANGUAGE);
+        IcuSentenceHints hints = new IcuSentenceHints();
+        hints.setLocale(LANGUAGE);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        try {
+            String[][] texts = {
+                    {"Only .004% resulted in a damage."},
+                    {"  Mr. Smith went to Washington. He arrived at 5 p.m. and left.  "},
+                    {"Some text, ", "<b>", "other text. More text.", "</b>"},
+                    {"First sentence.", "<br/>", "  Second sentence!   Third one?"},
+                    {"", "<b>", "Bold sentence.", "</b>", " Plain sentence. ", "<br/>"},
+                    {"Link to test.com/folder/folder/?a=1 and more. End"},
+            };
+            for (String[] text : texts) {
+                List<TextContainer> containers = new ArrayList<>();
+                containers.add(container(text));
+                // Same text with the ICU hints
+                TextContainer plain = container(text);
+                TextFragment content = plain.getFirstContent();
+                String codedTextWithHints = hints.addHints(content.getCodedText());
+                if (codedTextWithHints != null) {
+                    TextFragment hinted = new TextFragment();
+                    hinted.setCodedText(codedTextWithHints, content.getCodes(), true);
+                    containers.add(new TextContainer(hinted));
+                }
+
+                for (TextContainer tc : containers) {
+                    segmenter.computeSegments(tc);
+                    assertEquals(tc.getCodedText(), toStrings(segmenter.getRanges()),
+                            toStrings(interruptibleSegmenter.computeSegments(tc, deadline)));
+                }
+            }
+        } finally {
+            rules.release(LANGUAGE, segmenter);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBacktrackingRuleIsStopped() {
+        Pattern fast = Pattern.compile("([\\.!?]\\s*)()");
+        Pattern slow = Pattern.compile("((a+)+b)()");
+        InterruptibleSrxSegmenter segmenter = new InterruptibleSrxSegmenter(new SRXDocument(), Arrays.asList(fast, slow), new boolean[]{true, true});
+        char[] text = new char[40];
+        Arrays.fill(text, 'a');
+
+        try {
+            segmenter.computeSegments(container(new String(text)), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+            fail("The rule should exceed the time budget");
+        } catch (InterruptibleSrxSegmenter.SegmentationTimeoutException e) {
+            assertSame(slow, e.getRule());
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.matecat.converter.okapi.steps.segmentation;
+
+import com.matecat.converter.core.metrics.Metrics;
+import net.sf.okapi.common.Range;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+public class SegmentationCacheTest {
+
+    @Test
+    public void testRepeatedParagraphs() {
+        String text = "First. Second. " + UUID.randomUUID();
+        AtomicInteger computations = new AtomicInteger();
+        long hits = Metrics.getCacheHits("segmentation");
+
+        List<Range> first = SegmentationCache.get("test:en", text, () -> {
+            computations.incrementAndGet();
+            return Arrays.asList(new Range(0, 7), new Range(7, text.length()));
+        });
+        List<Range> second = SegmentationCache.get("test:en", text, () -> {
+            throw new AssertionError();
+        });
+        // Other rules or languages are segmented again
+        SegmentationCache.get("test:it", text, () -> {
+            computations.incrementAndGet();
+            return Arrays.asList(new Range(0, text.length()));
+        });
+
+        assertEquals(2, computations.get());
+        assertEquals(hits + 1, Metrics.getCacheHits("segmentation"));
+        assertEquals(first.size(), second.size());
+        assertEquals(7, second.get(0).end);
+        assertEquals(text.length(), second.get(1).end);
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.matecat.converter.server;
+
+import com.matecat.converter.core.Format;
+import com.matecat.converter.server.exceptions.ConversionRejectedException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+
+public class ConversionExecutorTest {
+
+    private ConversionExecutor executor;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Future<Boolean> submitBlocking(Format format) throws ConversionRejectedException {
+        return executor.submit(format, () -> {
+            release.await();
+            return true;
+        });
+    }
+
+    // Permits are released right after the result is reported, so retry for a while
+    private Future<Boolean> submitWhenReleased(Format format) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return submitBlocking(format);
+            } catch (ConversionRejectedException e) {
+                if (attempt == 50) throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        executor = new ConversionExecutor(1, 1, Collections.emptyMap(), 7, 60);
+        Future<Boolean> running = submitBlocking(Format.TXT);
+        Future<Boolean> queued = submitBlocking(Format.TXT);
+        try {
+            submitBlocking(Format.TXT);
+            fail("The third conversion should have been rejected");
+        } catch (ConversionRejectedException e) {
+            assertEquals(7, e.getRetryAfter());
+        }
+        release.countDown();
+        assertTrue(running.get());
+        assertTrue(queued.get());
+    }
+
+    @Test
+    public void testFormatLimit() throws Exception {
+        executor = new ConversionExecutor(4, 4, Collections.singletonMap(Format.DOCX, 1), 10, 60);
+        Future<Boolean> docx = submitBlocking(Format.DOCX);
+        try {
+            submitBlocking(Format.DOCX);
+            fail("The second DOCX conversion should have been rejected");
+        } catch (ConversionRejectedException ignored) {}
+
+        // Other formats are not affected by the DOCX limit
+        Future<Boolean> txt = submitBlocking(Format.TXT);
+
+        // Once the DOCX conversion is done, the permit is available again
+        release.countDown();
+        assertTrue(docx.get());
+        assertTrue(txt.get());
+        assertTrue(submitWhenReleased(Format.DOCX).get());
+    }
+
+    @Test
+    public void testFailedConversionReleasesPermit() throws Exception {
+        executor = new ConversionExecutor(1, 1, Collections.singletonMap(Format.TXT, 1), 10, 60);
+        Future<Boolean> failed = executor.submit(Format.TXT, () -> {
+            throw new IllegalArgumentException("broken");
+        });
+        try {
+            failed.get();
+            fail("The conversion exception should have been thrown");
+        } catch (ExecutionException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+        release.countDown();
+        assertTrue(submitWhenReleased(Format.TXT).get());
+    }
+
+    @Test
+    public void testCancelledConversionKeepsPermitUntilItExits() throws Exception {
+        executor = new ConversionExecutor(2, 2, Collections.singletonMap(Format.DOCX, 1), 10, 60);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch exit = new CountDownLatch(1);
+        Future<Boolean> ignoringInterrupts = executor.submit(Format.DOCX, () -> {
+            started.countDown();
+            while (exit.getCount() > 0) {
+                try {
+                    exit.await();
+                } catch (InterruptedException ignored) {}
+            }
+            return true;
+        });
+        started.await();
+        ignoringInterrupts.cancel(true);
+
+        // The cancelled conversion is still running, so it keeps its permit
+        try {
+            submitBlocking(Format.DOCX);
+            fail("The DOCX permit should be held until the cancelled conversion exits");
+        } catch (ConversionRejectedException ignored) {}
+
+        exit.countDown();
+        release.countDown();
+        assertTrue(submitWhenReleased(Format.DOCX).get());
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        executor = new ConversionExecutor(1, 1, Collections.emptyMap(), 10, 60);
+        Future<Boolean> running = submitBlocking(Format.TXT);
+        Future<Boolean> queued = submitBlocking(Format.TXT);
+
+        // The accepted conversions end during the drain, the new ones are rejected
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {}
+            release.countDown();
+        }).start();
+        assertTrue(executor.drain(10_000));
+        assertTrue(executor.isDraining());
+        assertTrue(running.get());
+        assertTrue(queued.get());
+        try {
+            submitBlocking(Format.TXT);
+            fail("Conversions should be rejected once drained");
+        } catch (ConversionRejectedException ignored) {}
+    }
+
+    @Test
+    public void testDrainTimeout() throws Exception {
+        executor = new ConversionExecutor(1, 1, Collections.emptyMap(), 10, 60);
+        Future<Boolean> running = submitBlocking(Format.TXT);
+        Future<Boolean> queued = submitBlocking(Format.TXT);
+
+        // The conversions still there after the timeout are cancelled
+        assertFalse(executor.drain(100));
+        assertTrue(running.isDone());
+        assertTrue(queued.isCancelled());
+    }
+
+    @Test
+    public void testInterruption() {
+        // Interruptions wrapped by the filters are recognized, other failures are not
+        assertTrue(ConversionExecutor.isInterruption(new RuntimeException(new ClosedByInterruptException())));
+        assertTrue(ConversionExecutor.isInterruption(new IllegalStateException("Okapi", new InterruptedException())));
+        assertFalse(ConversionExecutor.isInterruption(new IllegalArgumentException("Invalid file")));
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.matecat.converter.server;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+public class JSONStreamingOutputTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("streaming", ".xlf").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private String write(JSONStreamingOutput output) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        output.write(stream);
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFileContentIsEscapedAsJsonSimple() throws Exception {
+        StringBuilder content = new StringBuilder("<xliff a=\"b\">\\/\t\r\n\b\f\u0001\u007F  àè 中文 😀</xliff>");
+        // Longer than the buffer, to cross the chunk boundaries
+        while (content.length() < 50000)
+            content.append(content);
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        String streamed = write(new JSONStreamingOutput()
+                .put(JSONResponseFactory.IS_SUCCESS, true)
+                .putFileContent(JSONResponseFactory.XLIFF_CONTENT, file)
+                .put(JSONResponseFactory.FILENAME, "a\"b.xlf"));
+
+        String expected = "{\"" + JSONResponseFactory.IS_SUCCESS + "\":true,\""
+                + JSONResponseFactory.XLIFF_CONTENT + "\":\"" + JSONObject.escape(content.toString()) + "\",\""
+                + JSONResponseFactory.FILENAME + "\":\"a\\\"b.xlf\"}";
+        assertEquals(expected, streamed);
+
+        JSONObject json = (JSONObject) new JSONParser().parse(streamed);
+        assertEquals(content.toString(), json.get(JSONResponseFactory.XLIFF_CONTENT));
+    }
+
+    @Test
+    public void testEncodedFileContent() throws Exception {
+        byte[] content = new byte[100001];
+        new Random(42).nextBytes(content);
+        Files.write(file.toPath(), content);
+
+        String streamed = write(new JSONStreamingOutput()
+                .put(JSONResponseFactory.IS_SUCCESS, true)
+                .putEncodedFileContent(JSONResponseFactory.DOCUMENT_CONTENT, file));
+
+        JSONObject json = (JSONObject) new JSONParser().parse(streamed);
+        assertEquals(true, json.get(JSONResponseFactory.IS_SUCCESS));
+        assertArrayEquals(content, Base64.getDecoder().decode((String) json.get(JSONResponseFactory.DOCUMENT_CONTENT)));
+    }
+
+}
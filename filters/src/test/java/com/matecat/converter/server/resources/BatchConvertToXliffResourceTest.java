@@ -0,0 +1,110 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.MatecatConverterServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class BatchConvertToXliffResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + BatchConvertToXliffResource.class.getAnnotation(Path.class).value();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx").getPath());
+
+        // Send request: two valid files and a broken one in the middle
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url);
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+        reqEntity.addPart("documentContent", new ByteArrayBody("not a docx".getBytes(StandardCharsets.UTF_8), "broken.docx"));
+        reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+        reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+        reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+
+        // Check OK status code
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        // One result per line, in any order
+        Map<Long, JSONObject> results = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JSONObject json = (JSONObject) new JSONParser().parse(line);
+            results.put((Long) json.get(JSONResponseFactory.INDEX), json);
+        }
+        assertEquals(3, results.size());
+
+        // The broken file doesn't affect the others
+        for (long index : new long[]{0, 2}) {
+            JSONObject json = results.get(index);
+            assertTrue((boolean) json.get(JSONResponseFactory.IS_SUCCESS));
+            assertEquals("test.docx.xlf", json.get(JSONResponseFactory.FILENAME));
+            assertNotSame("", json.get(JSONResponseFactory.XLIFF_CONTENT));
+        }
+        JSONObject broken = results.get(1L);
+        assertFalse((boolean) broken.get(JSONResponseFactory.IS_SUCCESS));
+        assertEquals("broken.docx", broken.get(JSONResponseFactory.FILENAME));
+        assertNotNull(broken.get(JSONResponseFactory.ERROR_MESSAGE));
+
+    }
+
+    @Test
+    public void testNoFiles() throws Exception {
+
+        // Send request without files
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url);
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+        reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+
+        assertEquals(400, response.getStatusLine().getStatusCode());
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}
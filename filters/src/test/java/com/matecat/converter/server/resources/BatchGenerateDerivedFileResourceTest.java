@@ -0,0 +1,85 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.MatecatConverterServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+public class BatchGenerateDerivedFileResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + BatchGenerateDerivedFileResource.class.getAnnotation(Path.class).value();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx.xlf").getPath());
+
+        // Send request: a valid xlf and a corrupted one
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url);
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("xliffContent", new FileBody(fileToUpload));
+        reqEntity.addPart("xliffContent", new ByteArrayBody("<xliff></xliff>".getBytes(StandardCharsets.UTF_8), "corrupted.xlf"));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+
+        // Check OK status code
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        // One result per line, in any order
+        Map<Long, JSONObject> results = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JSONObject json = (JSONObject) new JSONParser().parse(line);
+            results.put((Long) json.get(JSONResponseFactory.INDEX), json);
+        }
+        assertEquals(2, results.size());
+
+        JSONObject derived = results.get(0L);
+        assertTrue((boolean) derived.get(JSONResponseFactory.IS_SUCCESS));
+        assertNotSame("", derived.get(JSONResponseFactory.DOCUMENT_CONTENT));
+
+        JSONObject corrupted = results.get(1L);
+        assertFalse((boolean) corrupted.get(JSONResponseFactory.IS_SUCCESS));
+        assertEquals("corrupted.xlf", corrupted.get(JSONResponseFactory.FILENAME));
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}
@@ -11,6 +11,7 @@ import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.After;
@@ -79,6 +80,34 @@ public class ConvertToXliffResourceTest {
 
     }
 
+    @Test
+    public void testConvertRaw() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx").getPath());
+
+        // Send request, asking for the raw XLIFF
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader("Accept", "application/xliff+xml");
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+        reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+        reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+
+        // Check OK status code and metadata
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("application/xliff+xml", response.getFirstHeader("Content-Type").getValue());
+        assertTrue(response.getFirstHeader("Content-Disposition").getValue().contains("filename=\"test.docx.xlf\""));
+
+        // Check body: the XLIFF itself
+        String body = EntityUtils.toString(response.getEntity(), "UTF-8");
+        assertTrue(body.startsWith("<?xml"));
+        assertTrue(body.contains("<xliff"));
+
+    }
+
     @After
     public void tearDown() throws Exception {
         server.stop();
@@ -0,0 +1,80 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.MatecatConverterServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+
+public class DrainResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + DrainResource.class.getAnnotation(Path.class).value();
+    private static final String readyUrl = "http://localhost:" + PORT + ReadinessResource.class.getAnnotation(Path.class).value();
+    private static final String convertUrl = "http://localhost:" + PORT + ConvertToXliffResource.class.getAnnotation(Path.class).value();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        HttpClient httpclient = HttpClientBuilder.create().build();
+
+        // Ready before draining
+        HttpResponse response = httpclient.execute(new HttpGet(readyUrl));
+        EntityUtils.consume(response.getEntity());
+        assertEquals(200, response.getStatusLine().getStatusCode());
+
+        // Drain
+        response = httpclient.execute(new HttpPost(url));
+        EntityUtils.consume(response.getEntity());
+        assertEquals(202, response.getStatusLine().getStatusCode());
+        for (int i = 0; i < 50 && server.isReady(); i++)
+            Thread.sleep(100);
+
+        // Not ready anymore
+        response = httpclient.execute(new HttpGet(readyUrl));
+        EntityUtils.consume(response.getEntity());
+        assertEquals(503, response.getStatusLine().getStatusCode());
+
+        // New conversions are rejected
+        File fileToUpload = new File(getClass().getResource("/server/test.docx").getPath());
+        HttpPost httpPost = new HttpPost(convertUrl);
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+        reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+        reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+        httpPost.setEntity(reqEntity.build());
+        response = httpclient.execute(httpPost);
+        EntityUtils.consume(response.getEntity());
+        assertEquals(503, response.getStatusLine().getStatusCode());
+        assertNotNull(response.getFirstHeader("Retry-After"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}
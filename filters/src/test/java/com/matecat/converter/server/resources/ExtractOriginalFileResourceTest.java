@@ -8,6 +8,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.After;
@@ -70,6 +71,33 @@ public class ExtractOriginalFileResourceTest {
 
     }
 
+    @Test
+    public void testOriginalRaw() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx.xlf").getPath());
+
+        // Send request, asking for the raw file
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader("Accept", "application/octet-stream");
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("file", new FileBody(fileToUpload));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+
+        // Check OK status code and metadata
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("application/octet-stream", response.getFirstHeader("Content-Type").getValue());
+        assertTrue(response.getFirstHeader("Content-Disposition").getValue().contains("filename=\"test.docx\""));
+
+        // Check body: the docx itself
+        byte[] body = EntityUtils.toByteArray(response.getEntity());
+        assertEquals(Long.parseLong(response.getFirstHeader("Content-Length").getValue()), body.length);
+        assertEquals('P', body[0]);
+        assertEquals('K', body[1]);
+
+    }
+
     @After
     public void tearDown() throws Exception {
         server.stop();
@@ -0,0 +1,132 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.JSONResponseFactory;
+import com.matecat.converter.server.MatecatConverterServer;
+import com.matecat.converter.server.jobs.Job;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+
+public class JobsResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + JobsResource.class.getAnnotation(Path.class).value();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testConvertJob() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx").getPath());
+
+        // Submit the job
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url + "/original2xliff");
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+        reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+        reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+        assertEquals(202, response.getStatusLine().getStatusCode());
+        JSONObject json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+        String jobId = (String) json.get(JSONResponseFactory.JOB_ID);
+        assertNotNull(jobId);
+        assertTrue(response.getFirstHeader("Location").getValue().endsWith("/AutomationService/jobs/" + jobId));
+
+        // Wait until it's done
+        String status = waitForJob(httpclient, jobId);
+        assertEquals(Job.Status.DONE.name(), status);
+
+        // Fetch the result
+        response = httpclient.execute(new HttpGet(url + "/" + jobId + "/result"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+        assertTrue((boolean) json.get(JSONResponseFactory.IS_SUCCESS));
+        assertTrue(((String) json.get(JSONResponseFactory.XLIFF_CONTENT)).contains("<xliff"));
+
+        // The result is returned only once
+        Thread.sleep(200);
+        response = httpclient.execute(new HttpGet(url + "/" + jobId));
+        EntityUtils.consume(response.getEntity());
+        assertEquals(404, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testDeleteJob() throws Exception {
+
+        File fileToUpload = new File(getClass().getResource("/server/test.docx.xlf").getPath());
+
+        // Submit the job
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpPost httpPost = new HttpPost(url + "/xliff2original");
+        MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+        reqEntity.addPart("xliffContent", new FileBody(fileToUpload));
+        httpPost.setEntity(reqEntity.build());
+        HttpResponse response = httpclient.execute(httpPost);
+        assertEquals(202, response.getStatusLine().getStatusCode());
+        JSONObject json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+        String jobId = (String) json.get(JSONResponseFactory.JOB_ID);
+
+        // Delete it
+        response = httpclient.execute(new HttpDelete(url + "/" + jobId));
+        assertEquals(204, response.getStatusLine().getStatusCode());
+        response = httpclient.execute(new HttpGet(url + "/" + jobId + "/result"));
+        EntityUtils.consume(response.getEntity());
+        assertEquals(404, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testUnknownJob() throws Exception {
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpResponse response = httpclient.execute(new HttpGet(url + "/unknown"));
+        JSONObject json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+        assertEquals(404, response.getStatusLine().getStatusCode());
+        assertFalse((boolean) json.get(JSONResponseFactory.IS_SUCCESS));
+    }
+
+    private String waitForJob(HttpClient httpclient, String jobId) throws Exception {
+        for (int i = 0; i < 600; i++) {
+            HttpResponse response = httpclient.execute(new HttpGet(url + "/" + jobId));
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            JSONObject json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+            String status = (String) json.get(JSONResponseFactory.STATUS);
+            if (!status.equals(Job.Status.QUEUED.name()) && !status.equals(Job.Status.RUNNING.name()))
+                return status;
+            Thread.sleep(100);
+        }
+        throw new AssertionError("The job didn't finish in time");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}
@@ -0,0 +1,95 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.MatecatConverterServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.Path;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+
+public class MetricsResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + MetricsResource.class.getAnnotation(Path.class).value();
+    private static final String convertUrl = "http://localhost:" + PORT + ConvertToXliffResource.class.getAnnotation(Path.class).value();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+
+        // Unique content, so the conversion isn't answered by the result cache
+        File fileToUpload = folder.newFile("test.txt");
+        Files.write(fileToUpload.toPath(), ("Hello world " + UUID.randomUUID() + ".").getBytes(StandardCharsets.UTF_8));
+
+        // Convert the file twice
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpResponse response = null;
+        for (int i = 0; i < 2; i++) {
+            HttpPost httpPost = new HttpPost(convertUrl);
+            MultipartEntityBuilder reqEntity = MultipartEntityBuilder.create();
+            reqEntity.addPart("documentContent", new FileBody(fileToUpload));
+            reqEntity.addPart("sourceLocale", new StringBody("en-US", ContentType.TEXT_PLAIN));
+            reqEntity.addPart("targetLocale", new StringBody("fr-FR", ContentType.TEXT_PLAIN));
+            httpPost.setEntity(reqEntity.build());
+            response = httpclient.execute(httpPost);
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            EntityUtils.consume(response.getEntity());
+        }
+
+        // Get the metrics
+        response = httpclient.execute(new HttpGet(url));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain"));
+        String metrics = EntityUtils.toString(response.getEntity());
+
+        // Every stage of the conversion has been measured
+        for (String stage : new String[]{"total", "encoding_detection", "okapi", "xliff_build", "json_serialization"})
+            assertTrue(stage, metrics.contains("matecat_converter_stage_duration_seconds_count{stage=\"" + stage
+                    + "\",format=\"txt\",direction=\"original2xliff\"}"));
+        assertTrue(metrics.contains("le=\"+Inf\""));
+
+        // The second conversion has been answered by the result cache
+        assertTrue(metrics.contains("matecat_converter_cache_hits_total{cache=\"original2xliff\"} "));
+        assertFalse(metrics.contains("matecat_converter_cache_hits_total{cache=\"original2xliff\"} 0\n"));
+
+        // Load gauges
+        assertTrue(metrics.contains("matecat_converter_conversions_in_flight "));
+        assertTrue(metrics.contains("matecat_converter_conversions_queued "));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}
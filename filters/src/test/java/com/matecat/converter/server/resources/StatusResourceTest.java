@@ -0,0 +1,61 @@
+package com.matecat.converter.server.resources;
+
+import com.matecat.converter.server.MatecatConverterServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+
+import static org.junit.Assert.*;
+
+
+public class StatusResourceTest {
+
+    private static MatecatConverterServer server;
+    private static final int PORT = 8090;
+    private static final String url = "http://localhost:" + PORT + StatusResource.class.getAnnotation(Path.class).value();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MatecatConverterServer(PORT);
+        while ( !server.isStarted() )
+            Thread.sleep(100);
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        HttpClient httpclient = HttpClientBuilder.create().build();
+        HttpResponse response = httpclient.execute(new HttpGet(url));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        JSONObject json = (JSONObject) new JSONParser().parse(EntityUtils.toString(response.getEntity()));
+
+        // Load
+        JSONObject conversions = (JSONObject) json.get("conversions");
+        assertEquals(0L, conversions.get("running"));
+        assertEquals(0L, conversions.get("queued"));
+
+        // Resources
+        JSONObject cacheFolder = (JSONObject) json.get("cacheFolder");
+        assertTrue((long) cacheFolder.get("freeBytes") > 0);
+        JSONObject heap = (JSONObject) json.get("heap");
+        assertTrue((long) heap.get("headroomBytes") > 0);
+        assertNotNull(json.get("winConverters"));
+        assertNotNull(json.get("caches"));
+        assertEquals(json.get("ready"), server.isReady());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        while (!server.isStopped())
+            Thread.sleep(100);
+    }
+}